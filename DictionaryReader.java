@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Reads a dictionary file one word per line, like Scanner.nextLine().trim().toLowerCase(), but splits
+// lines directly on the bytes of large NIO reads. ASCII lines go straight into a reused char array,
+// so no String is created per word; lines with other UTF-8 characters fall back to String decoding,
+// as do lines with uppercase letters in a locale that lowercases them differently
+public class DictionaryReader {
+    private static final int BUFFER_SIZE = 1 << 16; // Bytes read from the file at a time
+
+    // Receives each word as the first `length` characters of an array that is reused for the next word
+    public interface WordConsumer {
+        void accept(char[] word, int length);
+    }
+
+    // Words of a dictionary that share their first character, stored back to back in one array
+    public static class Shard {
+        private char[] chars = new char[1024]; // Characters of all words, one after another
+        private int[] ends = new int[64]; // Index in chars just past each word
+        private int size; // Number of words
+
+        private void add(char[] word, int length) {
+            int start = size == 0 ? 0 : ends[size - 1];
+            if (start + length > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(start + length, chars.length * 2));
+            }
+            if (size == ends.length) {
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            System.arraycopy(word, 0, chars, start, length);
+            ends[size++] = start + length;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // Gets the array holding the words; word i is chars()[start(i)..end(i))
+        public char[] chars() {
+            return chars;
+        }
+
+        public int start(int i) {
+            return i == 0 ? 0 : ends[i - 1];
+        }
+
+        public int end(int i) {
+            return ends[i];
+        }
+    }
+
+    private final WordConsumer consumer;
+    private final boolean plainLowercase = TrieApp.hasPlainAsciiLowercase(); // Whether 'A'..'Z' become 'a'..'z'
+    private char[] word = new char[64]; // Characters of the current word, grown for long lines
+    private int count; // Number of words passed to the consumer
+
+    private DictionaryReader(WordConsumer consumer) {
+        this.consumer = consumer;
+    }
+
+    // Passes every non-empty, trimmed, lowercased line of a file to the consumer, returning how many
+    public static int readWords(String filePath, WordConsumer consumer) throws IOException {
+        DictionaryReader reader = new DictionaryReader(consumer);
+        reader.read(filePath);
+        return reader.count;
+    }
+
+    // Reads a dictionary like readWords and groups its words by first character, so each group
+    // can be inserted into its own subtree of the root
+    public static Map<Character, Shard> readShards(String filePath) throws IOException {
+        Map<Character, Shard> shards = new TreeMap<>();
+        readWords(filePath, (word, length) -> shards.computeIfAbsent(word[0], key -> new Shard()).add(word, length));
+        return shards;
+    }
+
+    private void read(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            byte[] bytes = new byte[BUFFER_SIZE];
+            int start = 0; // The bytes not yet split into lines are bytes[start..end)
+            int end = 0;
+
+            while (true) {
+                // Keep the unfinished line at the front and fill the rest of the buffer
+                System.arraycopy(bytes, start, bytes, 0, end - start);
+                end -= start;
+                start = 0;
+                if (end == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2); // A line longer than the buffer
+                }
+                int read = channel.read(ByteBuffer.wrap(bytes, end, bytes.length - end));
+                if (read < 0) {
+                    break;
+                }
+                end += read;
+
+                // Split on \n and \r; the empty line between \r and \n is skipped like any other
+                for (int i = start; i < end; i++) {
+                    if (bytes[i] == '\n' || bytes[i] == '\r') {
+                        line(bytes, start, i);
+                        start = i + 1;
+                    }
+                }
+            }
+
+            line(bytes, start, end); // The last line may have no line break
+        }
+    }
+
+    // Trims, lowercases and passes on the line in bytes[from..to)
+    private void line(byte[] bytes, int from, int to) {
+        // Trim like String.trim, which removes characters up to ' '. Bytes of multi-byte UTF-8
+        // characters are negative, so they are never trimmed
+        while (from < to && bytes[from] >= 0 && bytes[from] <= ' ') {
+            from++;
+        }
+        while (to > from && bytes[to - 1] >= 0 && bytes[to - 1] <= ' ') {
+            to--;
+        }
+        if (from == to) {
+            return; // Skip empty lines
+        }
+
+        if (to - from > word.length) {
+            word = new char[Math.max(to - from, word.length * 2)];
+        }
+        for (int i = from; i < to; i++) {
+            byte b = bytes[i];
+            if (b < 0 || (!plainLowercase && b >= 'A' && b <= 'Z')) {
+                decodedLine(bytes, from, to); // Let String handle the decoding and the locale's lowercasing
+                return;
+            }
+            word[i - from] = (char) (b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b);
+        }
+
+        consumer.accept(word, to - from);
+        count++;
+    }
+
+    // Decodes a line with non-ASCII characters, which may also hold the Unicode line separators
+    // that Scanner.nextLine splits on
+    private void decodedLine(byte[] bytes, int from, int to) {
+        String text = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        for (String part : text.split("[\\u0085\\u2028\\u2029]")) {
+            String trimmed = part.trim().toLowerCase(); // Normalize like loadFile always has
+            if (!trimmed.isEmpty()) {
+                char[] chars = trimmed.toCharArray();
+                consumer.accept(chars, chars.length);
+                count++;
+            }
+        }
+    }
+}
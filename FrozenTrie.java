@@ -0,0 +1,490 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+// Read-only double-array trie compiled from a TrieApp. Every state is an index into parallel int
+// arrays: the child of state s for character c is t = base[s] + code(c), valid only if check[t] == s.
+// Since importance never changes after freezing, the children of each state are also chained in
+// descending order of subtree importance, so the top-k walks need neither sorting nor allocation.
+// The arrays are int buffers, so they can live on the heap or be mapped from a snapshot file
+public class FrozenTrie {
+    private static final int ROOT = 0; // State of the root
+    private static final int FREE = -1; // CHECK value of an unused slot
+    private static final int RESERVED = -2; // CHECK value of the root's slot, which is nobody's child
+
+    // Snapshot layout, all little-endian ints: MAGIC, VERSION, slot count, alphabet length, the
+    // alphabet, then base, check, importance, maxImportance, firstChild and nextSibling in turn
+    private static final int MAGIC = 0x54524945; // "TRIE"
+    private static final int VERSION = 1; // Increase whenever the layout changes
+    private static final int HEADER_INTS = 4; // MAGIC, VERSION, slot count and alphabet length
+    private static final int ARRAYS = 6; // Number of per-slot arrays
+
+    private final int size; // Number of slots in each array
+    private final IntBuffer base; // Offset added to a character code to find a state's children, or -1 for a leaf
+    private final IntBuffer check; // Parent state of each state, FREE or RESERVED
+    private final IntBuffer importance; // Importance of the word ending at each state, or -1 if no word ends there
+    private final IntBuffer maxImportance; // Highest importance of any word in each state's subtree
+    private final IntBuffer firstChild; // Child with the highest subtree importance, or -1 for a leaf
+    private final IntBuffer nextSibling; // Next child of the same parent in descending subtree importance, or -1
+    private final int[] codes; // Code (1 to alphabet size) of each character, or 0 if it never occurs
+    private final char[] alphabet; // Character of each code, with index 0 unused
+
+    private FrozenTrie(int size, IntBuffer base, IntBuffer check, IntBuffer importance, IntBuffer maxImportance,
+            IntBuffer firstChild, IntBuffer nextSibling, char[] alphabet) {
+        this.size = size;
+        this.base = base;
+        this.check = check;
+        this.importance = importance;
+        this.maxImportance = maxImportance;
+        this.firstChild = firstChild;
+        this.nextSibling = nextSibling;
+        this.codes = codesOf(alphabet);
+        this.alphabet = alphabet;
+    }
+
+    // Maps each character of an alphabet to its code
+    private static int[] codesOf(char[] alphabet) {
+        int[] codes = new int[alphabet.length > 1 ? alphabet[alphabet.length - 1] + 1 : 0];
+        for (int code = 1; code < alphabet.length; code++) {
+            codes[alphabet[code]] = code;
+        }
+        return codes;
+    }
+
+    // Compiles the subtree of a TrieApp node into a double-array trie
+    static FrozenTrie build(TrieApp.TrieNode root) {
+        Builder builder = new Builder(collectAlphabet(root));
+        return builder.build(root);
+    }
+
+    // Finds every character used on an edge of the trie, in ascending order
+    private static char[] collectAlphabet(TrieApp.TrieNode root) {
+        boolean[] used = new boolean[Character.MAX_VALUE + 1];
+        int count = 0;
+
+        ArrayDeque<TrieApp.TrieNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            TrieApp.TrieNode node = stack.pop();
+            char[] keys = new char[node.childCount()];
+            TrieApp.TrieNode[] children = new TrieApp.TrieNode[keys.length];
+            int childCount = node.getChildren(keys, children);
+            for (int i = 0; i < childCount; i++) {
+                if (!used[keys[i]]) {
+                    used[keys[i]] = true;
+                    count++;
+                }
+                stack.push(children[i]);
+            }
+        }
+
+        char[] alphabet = new char[count + 1]; // Code 0 means "not in the alphabet"
+        int code = 1;
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (used[c]) {
+                alphabet[code++] = (char) c;
+            }
+        }
+        return alphabet;
+    }
+
+    // Places the states of a trie into the double arrays, one breadth-first level at a time
+    private static class Builder {
+        private static final int MAX_FAILURES = 16; // Times a free slot may fail as a start before it is skipped
+
+        private final char[] alphabet;
+        private final int[] codes;
+        private int[] base = new int[1024];
+        private int[] check = new int[1024];
+        private int[] importance = new int[1024];
+        private int[] maxImportance = new int[1024];
+        private int[] firstChild = new int[1024];
+        private int[] nextSibling = new int[1024];
+        private int[] nextFree = new int[1024]; // Free slots form a list in ascending order, so the
+        private int[] previousFree = new int[1024]; // search for a base skips the slots in use
+        private byte[] failures = new byte[1024]; // Times each free slot was tried as a start and did not fit
+        private int firstFree = -1; // Lowest free slot
+        private int lastFree = -1; // Highest free slot
+        private int size = 1; // One past the highest used slot
+
+        Builder(char[] alphabet) {
+            this.alphabet = alphabet;
+            this.codes = codesOf(alphabet);
+            linkFreeSlots(0, check.length);
+        }
+
+        FrozenTrie build(TrieApp.TrieNode root) {
+            take(ROOT);
+            check[ROOT] = RESERVED;
+            importance[ROOT] = root.isWord() ? root.getImportance() : -1;
+            maxImportance[ROOT] = root.getMaxImportance();
+
+            ArrayDeque<TrieApp.TrieNode> nodes = new ArrayDeque<>();
+            ArrayDeque<Integer> states = new ArrayDeque<>();
+            nodes.add(root);
+            states.add(ROOT);
+
+            while (!nodes.isEmpty()) {
+                TrieApp.TrieNode node = nodes.poll();
+                int state = states.poll();
+
+                char[] keys = new char[node.childCount()];
+                TrieApp.TrieNode[] children = new TrieApp.TrieNode[keys.length];
+                int count = node.getChildren(keys, children);
+                firstChild[state] = -1;
+                if (count == 0) {
+                    base[state] = -1; // A leaf, so there is nothing to place
+                    continue;
+                }
+
+                // Sort the children by code so the first and last codes bound the search
+                int[] childCodes = new int[count];
+                for (int i = 0; i < count; i++) {
+                    childCodes[i] = codes[keys[i]];
+                }
+                sortByCode(childCodes, children, count);
+
+                int offset = findBase(childCodes, count);
+                base[state] = offset;
+                for (int i = 0; i < count; i++) {
+                    int child = offset + childCodes[i];
+                    take(child);
+                    check[child] = state;
+                    importance[child] = children[i].isWord() ? children[i].getImportance() : -1;
+                    maxImportance[child] = children[i].getMaxImportance();
+                    size = Math.max(size, child + 1);
+                    nodes.add(children[i]);
+                    states.add(child);
+
+                    // Insert the child into its parent's chain, keeping it in descending subtree importance
+                    int previous = -1;
+                    int next = firstChild[state];
+                    while (next >= 0 && maxImportance[next] >= maxImportance[child]) {
+                        previous = next;
+                        next = nextSibling[next];
+                    }
+                    nextSibling[child] = next;
+                    if (previous < 0) {
+                        firstChild[state] = child;
+                    } else {
+                        nextSibling[previous] = child;
+                    }
+                }
+            }
+
+            return new FrozenTrie(size, wrap(base), wrap(check), wrap(importance), wrap(maxImportance),
+                    wrap(firstChild), wrap(nextSibling), alphabet);
+        }
+
+        // Wraps the used part of an array in a buffer
+        private IntBuffer wrap(int[] array) {
+            return IntBuffer.wrap(Arrays.copyOf(array, size));
+        }
+
+        // Finds the lowest base at which every child code lands on a free slot
+        private int findBase(int[] childCodes, int count) {
+            int first = childCodes[0];
+            int last = childCodes[count - 1];
+            for (int slot = firstFree;;) {
+                int next = nextFree[slot];
+                if (slot >= first) { // A lower slot would need a negative base
+                    int offset = slot - first;
+                    ensureCapacity(offset + last + 1);
+                    boolean fits = true;
+                    for (int i = 1; i < count && fits; i++) {
+                        fits = check[offset + childCodes[i]] == FREE;
+                    }
+                    if (fits) {
+                        return offset;
+                    }
+
+                    // A slot surrounded by used ones rarely fits, so stop trying it as a start.
+                    // It stays free and can still be filled as another child's slot
+                    if (++failures[slot] == MAX_FAILURES) {
+                        unlink(slot);
+                    }
+                }
+
+                if (next < 0) {
+                    next = check.length; // Grow so that the list goes on past this slot
+                    ensureCapacity(next + 1);
+                }
+                slot = next;
+            }
+        }
+
+        // Marks a slot as used, removing it from the free list unless it was already skipped
+        private void take(int slot) {
+            if (failures[slot] < MAX_FAILURES) {
+                unlink(slot);
+            }
+        }
+
+        // Removes a slot from the free list
+        private void unlink(int slot) {
+            int previous = previousFree[slot];
+            int next = nextFree[slot];
+            if (previous >= 0) {
+                nextFree[previous] = next;
+            } else {
+                firstFree = next;
+            }
+            if (next >= 0) {
+                previousFree[next] = previous;
+            } else {
+                lastFree = previous;
+            }
+
+            if (firstFree < 0) {
+                ensureCapacity(check.length + 1); // Keep at least one free slot to start searches from
+            }
+        }
+
+        // Appends the slots from start to end to the free list
+        private void linkFreeSlots(int start, int end) {
+            Arrays.fill(check, start, end, FREE);
+            for (int slot = start; slot < end; slot++) {
+                previousFree[slot] = slot - 1;
+                nextFree[slot] = slot + 1;
+            }
+            previousFree[start] = lastFree;
+            nextFree[end - 1] = -1;
+            if (lastFree >= 0) {
+                nextFree[lastFree] = start;
+            } else {
+                firstFree = start;
+            }
+            lastFree = end - 1;
+        }
+
+        // Sorts the children by code with an insertion sort, like TrieApp.getChildrenByImportance
+        private static void sortByCode(int[] childCodes, TrieApp.TrieNode[] children, int count) {
+            for (int i = 1; i < count; i++) {
+                int code = childCodes[i];
+                TrieApp.TrieNode child = children[i];
+                int j = i - 1;
+                while (j >= 0 && childCodes[j] > code) {
+                    childCodes[j + 1] = childCodes[j];
+                    children[j + 1] = children[j];
+                    j--;
+                }
+                childCodes[j + 1] = code;
+                children[j + 1] = child;
+            }
+        }
+
+        // Doubles the arrays until they hold the given number of slots
+        private void ensureCapacity(int capacity) {
+            if (capacity <= check.length) {
+                return;
+            }
+            int newLength = check.length;
+            while (newLength < capacity) {
+                newLength *= 2;
+            }
+            int oldLength = check.length;
+            base = Arrays.copyOf(base, newLength);
+            check = Arrays.copyOf(check, newLength);
+            importance = Arrays.copyOf(importance, newLength);
+            maxImportance = Arrays.copyOf(maxImportance, newLength);
+            firstChild = Arrays.copyOf(firstChild, newLength);
+            nextSibling = Arrays.copyOf(nextSibling, newLength);
+            nextFree = Arrays.copyOf(nextFree, newLength);
+            previousFree = Arrays.copyOf(previousFree, newLength);
+            failures = Arrays.copyOf(failures, newLength);
+            linkFreeSlots(oldLength, newLength);
+        }
+    }
+
+    // Gets the child of a state for a character, or -1 if there is none
+    private int child(int state, char c) {
+        int code = c < codes.length ? codes[c] : 0;
+        if (code == 0) {
+            return -1; // The character never occurs in the trie
+        }
+        int child = base.get(state) + code;
+        return child >= 0 && child < size && check.get(child) == state ? child : -1;
+    }
+
+    // Follows a word from the root, returning its state or -1 if it leaves the trie
+    private int searchState(String word) {
+        int state = ROOT;
+        for (int i = 0; i < word.length() && state >= 0; i++) {
+            state = child(state, word.charAt(i));
+        }
+        return state;
+    }
+
+    // Checks whether a complete word is in the trie
+    public boolean contains(String word) {
+        int state = searchState(word.toLowerCase());
+        return state >= 0 && importance.get(state) >= 0;
+    }
+
+    // Gets the importance of a word, or 0 if it is not in the trie
+    public int getImportance(String word) {
+        int state = searchState(word.toLowerCase());
+        return state >= 0 && importance.get(state) > 0 ? importance.get(state) : 0;
+    }
+
+    // Finds the top k words matching the given word, with the same rules as TrieApp.findTopKWords
+    public TrieApp.MinHeap findTopKWords(String word, int k) {
+        if (k <= 0) {
+            return new TrieApp.MinHeap(0); // Nothing to collect
+        }
+
+        TrieApp.MinHeap heap = new TrieApp.MinHeap(k);
+        collectMatchingWords(ROOT, new StringBuilder(), true, word, new TrieApp.LetterHistogram(word), heap);
+        return heap;
+    }
+
+    // Finds the top k words starting with the given prefix, in descending order of importance
+    public String[] completePrefix(String prefix, int k) {
+        if (k <= 0) {
+            return new String[0]; // Nothing to collect
+        }
+
+        prefix = prefix.toLowerCase(); // Normalize the prefix like the stored words
+        TrieApp.MinHeap heap = new TrieApp.MinHeap(k);
+
+        int state = searchState(prefix); // Descend to the prefix state first
+        if (state >= 0) {
+            collectWords(state, new StringBuilder(prefix), heap);
+        }
+        return heap.getTopKWords(k);
+    }
+
+    // Collects every word in the subtree of a state
+    private void collectWords(int state, StringBuilder path, TrieApp.MinHeap heap) {
+        if (importance.get(state) > 0) {
+            heap.insert(path.toString(), importance.get(state));
+        }
+
+        int depth = path.length();
+        for (int child = firstChild.get(state); child >= 0; child = nextSibling.get(child)) {
+            if (heap.rejects(maxImportance.get(child))) {
+                break; // No word in this or any later subtree can enter the heap
+            }
+            path.append(keyOf(state, child));
+            collectWords(child, path, heap);
+            path.setLength(depth);
+        }
+    }
+
+    // Collects the words that match the target by the rules of TrieApp.matchesTopKRules, in one traversal
+    private void collectMatchingWords(int state, StringBuilder path, boolean onPrefixPath, String targetWord,
+            TrieApp.LetterHistogram histogram, TrieApp.MinHeap heap) {
+        int depth = path.length();
+        boolean inPrefix = onPrefixPath && depth >= targetWord.length(); // The path starts with the target
+
+        if (importance.get(state) > 0 && TrieApp.matchesTopKRules(path, targetWord, inPrefix, histogram)) {
+            heap.insert(path.toString(), importance.get(state));
+        }
+        if (!TrieApp.canMatchBelow(path, targetWord, inPrefix)) {
+            return;
+        }
+
+        for (int child = firstChild.get(state); child >= 0; child = nextSibling.get(child)) {
+            if (heap.rejects(maxImportance.get(child))) {
+                break; // No word in this or any later subtree can enter the heap
+            }
+            char c = keyOf(state, child);
+            boolean childOnPrefixPath = onPrefixPath && (inPrefix || targetWord.charAt(depth) == c);
+            path.append(c);
+            collectMatchingWords(child, path, childOnPrefixPath, targetWord, histogram, heap);
+            path.setLength(depth);
+        }
+    }
+
+    // Gets the character on the edge from a state to one of its children
+    private char keyOf(int state, int child) {
+        return alphabet[child - base.get(state)];
+    }
+
+    // Writes the trie to a snapshot file that openSnapshot can map back in place
+    public void writeSnapshot(String filePath) throws IOException {
+        long bytes = snapshotBytes(size, alphabet.length);
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Trie too large for a snapshot: " + size + " slots");
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            IntBuffer ints = buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            ints.put(MAGIC).put(VERSION).put(size).put(alphabet.length);
+            for (char c : alphabet) {
+                ints.put(c);
+            }
+            for (IntBuffer array : new IntBuffer[] { base, check, importance, maxImportance, firstChild,
+                    nextSibling }) {
+                ints.put(array.duplicate().clear()); // Copy the whole array, whatever its position
+            }
+            buffer.force(); // Make sure the snapshot is on disk before it is reported as written
+        }
+    }
+
+    // Opens a snapshot file written by writeSnapshot. The arrays stay in the mapped file and are
+    // paged in by the operating system as queries touch them, so opening takes the same time for
+    // any dictionary size
+    public static FrozenTrie openSnapshot(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            long bytes = channel.size();
+            if (bytes < HEADER_INTS * 4 || bytes > Integer.MAX_VALUE) {
+                throw new IOException("Not a trie snapshot: " + filePath);
+            }
+
+            // The mapping stays valid after the channel is closed
+            IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes).order(ByteOrder.LITTLE_ENDIAN)
+                    .asIntBuffer();
+            if (ints.get() != MAGIC) {
+                throw new IOException("Not a trie snapshot: " + filePath);
+            }
+            int version = ints.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported trie snapshot version " + version + ": " + filePath);
+            }
+            int size = ints.get();
+            int alphabetLength = ints.get();
+            if (size < 1 || alphabetLength < 1 || snapshotBytes(size, alphabetLength) != bytes) {
+                throw new IOException("Truncated or corrupt trie snapshot: " + filePath);
+            }
+
+            char[] alphabet = new char[alphabetLength];
+            for (int code = 0; code < alphabetLength; code++) {
+                alphabet[code] = (char) ints.get();
+            }
+
+            IntBuffer[] arrays = new IntBuffer[ARRAYS];
+            for (int i = 0; i < ARRAYS; i++) {
+                int start = ints.position();
+                ints.limit(start + size);
+                arrays[i] = ints.slice(); // A view of one array within the mapping
+                ints.limit(ints.capacity()).position(start + size);
+            }
+            return new FrozenTrie(size, arrays[0], arrays[1], arrays[2], arrays[3], arrays[4], arrays[5], alphabet);
+        }
+    }
+
+    // Gets the length of a snapshot file
+    private static long snapshotBytes(int size, int alphabetLength) {
+        return 4L * (HEADER_INTS + alphabetLength + (long) ARRAYS * size);
+    }
+
+    // Gets the number of slots in the double arrays
+    public int size() {
+        return size;
+    }
+
+    // Calculates the memory usage of the arrays, in the same way as TrieHashing.calcMem
+    public int calcMem() {
+        return size * ARRAYS * 4 /* base, check, importance, maxImportance, firstChild, nextSibling */
+                + codes.length * 4 + alphabet.length * 2;
+    }
+}
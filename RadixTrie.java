@@ -0,0 +1,344 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.Scanner;
+
+public class RadixTrie {
+
+    private RadixNode root; // The root of the radix trie, with an empty label
+    private int nodeCount; // Number of nodes, including the root
+
+    public RadixTrie() {
+        this.root = new RadixNode(new char[0]);
+        this.nodeCount = 1;
+    }
+
+    // Inner class representing a node of the radix trie. The edge into the node is labelled
+    // with a whole substring, so chains of single-child nodes collapse into one node
+    public static class RadixNode {
+        private char[] label; // Characters on the edge from the parent to this node
+        private char[] keys; // First character of each child's label, sorted
+        private RadixNode[] children; // Child of each key
+        private int wordLength; // Indicates if this node represents a complete word
+        private int importance;
+        private int maxImportance; // Highest importance of any word in this node's subtree
+
+        public RadixNode(char[] label) {
+            this.label = label;
+            this.keys = new char[0];
+            this.children = new RadixNode[0];
+            this.wordLength = 0; // Default to 0, indicating no complete word
+            this.importance = 0;
+            this.maxImportance = 0;
+        }
+
+        // Get the child whose label starts with the given character, or null if there is none
+        private RadixNode getChild(char key) {
+            int position = Arrays.binarySearch(keys, key);
+            return position >= 0 ? children[position] : null;
+        }
+
+        // Add a child, or replace the child whose label starts with the same character
+        private void putChild(RadixNode child) {
+            char key = child.label[0];
+            int position = Arrays.binarySearch(keys, key);
+            if (position >= 0) {
+                children[position] = child; // Replace, e.g. when an edge is split
+                return;
+            }
+
+            // Grow the arrays by one, keeping them sorted
+            position = -position - 1;
+            char[] newKeys = new char[keys.length + 1];
+            RadixNode[] newChildren = new RadixNode[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, position);
+            System.arraycopy(children, 0, newChildren, 0, position);
+            newKeys[position] = key;
+            newChildren[position] = child;
+            System.arraycopy(keys, position, newKeys, position + 1, keys.length - position);
+            System.arraycopy(children, position, newChildren, position + 1, keys.length - position);
+            keys = newKeys;
+            children = newChildren;
+        }
+    }
+
+    // Inserts a word into the radix trie
+    public void insert(String word) {
+        word = word.toLowerCase(); // Normalize like the other tries
+        RadixNode node = root;
+        int index = 0;
+
+        while (index < word.length()) {
+            RadixNode child = node.getChild(word.charAt(index));
+            if (child == null) {
+                // No edge starts with this character, so the rest of the word becomes one new edge
+                RadixNode leaf = new RadixNode(word.substring(index).toCharArray());
+                node.putChild(leaf);
+                nodeCount++;
+                node = leaf;
+                break;
+            }
+
+            // Follow the edge as far as it matches the word
+            int common = commonLength(child.label, word, index);
+            if (common < child.label.length) {
+                // The word leaves the edge in the middle, so split it at that point
+                RadixNode middle = new RadixNode(Arrays.copyOfRange(child.label, 0, common));
+                child.label = Arrays.copyOfRange(child.label, common, child.label.length);
+                middle.putChild(child);
+                middle.maxImportance = child.maxImportance;
+                node.putChild(middle);
+                nodeCount++;
+                child = middle;
+            }
+
+            node = child;
+            index += common;
+        }
+
+        node.wordLength = word.length(); // Mark the node as a complete word
+    }
+
+    // Counts how many characters of a label match the word from a given index
+    private static int commonLength(char[] label, String word, int index) {
+        int common = 0;
+        while (common < label.length && index + common < word.length()
+                && label[common] == word.charAt(index + common)) {
+            common++;
+        }
+        return common;
+    }
+
+    // Searches for the node at which a given word ends, or null if it ends inside an edge or is missing
+    public RadixNode searchNode(String word) {
+        RadixNode node = root;
+        int index = 0;
+
+        while (index < word.length()) {
+            node = node.getChild(word.charAt(index));
+            if (node == null || commonLength(node.label, word, index) < node.label.length) {
+                return null; // The word leaves the trie or ends inside an edge
+            }
+            index += node.label.length;
+        }
+
+        return node;
+    }
+
+    // Loads a file and inserts all words into the radix trie
+    public void loadFile(String filePath) {
+        File file = new File(filePath);
+
+        try (Scanner scanner = new Scanner(file)) { // Open the file for reading
+            while (scanner.hasNextLine()) { // Read each line
+                String word = scanner.nextLine().trim().toLowerCase(); // Normalize the word
+                if (!word.isEmpty()) { // Skip empty lines
+                    insert(word);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            System.out.println("Error: File not found - " + filePath);
+        } catch (Exception e) {
+            System.out.println("Error processing file: " + e.getMessage());
+        }
+    }
+
+    // Updates the importance of words based on a given file, using the same word rules as TrieApp
+    public void importanceUpdate(File wordsFile) {
+        try (Scanner scanner = new Scanner(wordsFile)) {
+            while (scanner.hasNext()) { // Scanner splits on whitespace, like TrieApp does
+                String word = TrieApp.processWord(scanner.next()); // Process each word based on specific rules
+                if (word != null && !word.isEmpty()) {
+                    incrementImportance(word, root, 0); // Increment importance if the word exists
+                }
+            }
+        } catch (FileNotFoundException e) {
+            System.out.println("Error: File not found - " + wordsFile.getName());
+        } catch (Exception e) {
+            System.out.println("Error processing file: " + e.getMessage());
+        }
+    }
+
+    // Increments the importance of a word and raises the subtree maximum of every node on its path
+    private int incrementImportance(String word, RadixNode node, int index) {
+        if (index == word.length()) { // Base case: reached the node of the word
+            if (node.wordLength == 0) {
+                return 0; // Not a complete word, so nothing changes
+            }
+            node.importance++;
+            node.maxImportance = Math.max(node.maxImportance, node.importance);
+            return node.importance;
+        }
+
+        RadixNode child = node.getChild(word.charAt(index));
+        if (child == null || commonLength(child.label, word, index) < child.label.length) {
+            return 0; // The word is not in the trie
+        }
+
+        int importance = incrementImportance(word, child, index + child.label.length);
+        node.maxImportance = Math.max(node.maxImportance, importance); // Propagate the new maximum upwards
+        return importance;
+    }
+
+    // Finds the top k words matching the given word, with the same rules as TrieApp.findTopKWords
+    public TrieApp.MinHeap findTopKWords(String word, int k) {
+        if (k <= 0) {
+            return new TrieApp.MinHeap(0); // Nothing to collect
+        }
+
+        TrieApp.MinHeap heap = new TrieApp.MinHeap(k);
+        collectMatchingWords(root, new StringBuilder(), true, word, new TrieApp.LetterHistogram(word), heap);
+        return heap;
+    }
+
+    // Finds the top k words starting with the given prefix, in descending order of importance
+    public String[] completePrefix(String prefix, int k) {
+        if (k <= 0) {
+            return new String[0]; // Nothing to collect
+        }
+
+        prefix = prefix.toLowerCase(); // Normalize the prefix like the stored words
+        TrieApp.MinHeap heap = new TrieApp.MinHeap(k);
+
+        // Descend to the first node whose path starts with the prefix
+        RadixNode node = root;
+        StringBuilder path = new StringBuilder();
+        while (node != null && path.length() < prefix.length()) {
+            node = node.getChild(prefix.charAt(path.length()));
+            if (node != null) {
+                int common = commonLength(node.label, prefix, path.length());
+                if (common < node.label.length && path.length() + common < prefix.length()) {
+                    node = null; // The prefix leaves the trie inside this edge
+                } else {
+                    path.append(node.label); // The prefix may end inside the edge
+                }
+            }
+        }
+
+        if (node != null) {
+            collectWords(node, path, heap);
+        }
+        return heap.getTopKWords(k);
+    }
+
+    // Collects every word in the subtree of a node
+    private void collectWords(RadixNode node, StringBuilder path, TrieApp.MinHeap heap) {
+        if (node.wordLength > 0 && node.importance > 0) {
+            heap.insert(path.toString(), node.importance);
+        }
+
+        int depth = path.length();
+        for (RadixNode child : childrenByImportance(node)) {
+            if (heap.rejects(child.maxImportance)) {
+                break; // No word in this or any later subtree can enter the heap
+            }
+            path.append(child.label);
+            collectWords(child, path, heap);
+            path.setLength(depth);
+        }
+    }
+
+    // Collects the words that match the target by the rules of TrieApp.matchesTopKRules, in one traversal
+    private void collectMatchingWords(RadixNode node, StringBuilder path, boolean onPrefixPath,
+            String targetWord, TrieApp.LetterHistogram histogram, TrieApp.MinHeap heap) {
+        int depth = path.length();
+        boolean inPrefix = onPrefixPath && depth >= targetWord.length(); // The path starts with the target
+
+        if (node.wordLength > 0 && node.importance > 0
+                && TrieApp.matchesTopKRules(path, targetWord, inPrefix, histogram)) {
+            heap.insert(path.toString(), node.importance);
+        }
+        if (!TrieApp.canMatchBelow(path, targetWord, inPrefix)) {
+            return;
+        }
+
+        for (RadixNode child : childrenByImportance(node)) {
+            if (heap.rejects(child.maxImportance)) {
+                break; // No word in this or any later subtree can enter the heap
+            }
+
+            // The child stays on the prefix path if its label agrees with the rest of the target
+            boolean childOnPrefixPath = onPrefixPath && (inPrefix
+                    || commonLength(child.label, targetWord, depth) == Math.min(child.label.length,
+                            targetWord.length() - depth));
+            path.append(child.label);
+            collectMatchingWords(child, path, childOnPrefixPath, targetWord, histogram, heap);
+            path.setLength(depth);
+        }
+    }
+
+    // Gets the children of a node sorted by descending subtree importance
+    private static RadixNode[] childrenByImportance(RadixNode node) {
+        RadixNode[] children = node.children.clone();
+
+        for (int i = 1; i < children.length; i++) { // Insertion sort, like TrieApp.getChildrenByImportance
+            RadixNode child = children[i];
+            int j = i - 1;
+            while (j >= 0 && children[j].maxImportance < child.maxImportance) {
+                children[j + 1] = children[j];
+                j--;
+            }
+            children[j + 1] = child;
+        }
+
+        return children;
+    }
+
+    // Gets the number of nodes in the radix trie
+    public int countNodes() {
+        return nodeCount;
+    }
+
+    // Gets the number of nodes the same words need in an uncompressed trie: one per edge character
+    public int countTrieNodes() {
+        return countTrieNodes(root);
+    }
+
+    private int countTrieNodes(RadixNode node) {
+        int count = node == root ? 1 : node.label.length;
+        for (RadixNode child : node.children) {
+            count += countTrieNodes(child);
+        }
+        return count;
+    }
+
+    // Calculates the memory usage of the radix trie, in the same way as TrieHashing.calcMem
+    public int calcMem() {
+        return calcMem(root);
+    }
+
+    private int calcMem(RadixNode node) {
+        int memory = 4 + 4 + 4; // Memory for wordLength, importance and maxImportance
+        memory += 8 + node.label.length * 2; // Memory for the label reference and its characters
+        memory += 8 + 8; // Memory for the keys and children references
+        memory += node.keys.length * (2 /* char */ + 8 /* child reference */);
+
+        for (RadixNode child : node.children) {
+            memory += calcMem(child); // Recursively calculate memory for child nodes
+        }
+
+        return memory;
+    }
+
+    public static void main(String[] args) {
+        String[] dictionaryFiles = {
+                "dictionary1.txt",
+                "dictionary2.txt",
+                "dictionary3.txt",
+                "dictionary4.txt",
+                "dictionary5.txt",
+                "dictionary6.txt"
+        };
+
+        for (String fileName : dictionaryFiles) {
+            RadixTrie radixTrie = new RadixTrie();
+            radixTrie.loadFile(fileName); // Load words from file into the radix trie
+            TrieHashing trieHashing = new TrieHashing();
+            trieHashing.loadFile(fileName);
+
+            // Print node counts and memory usage next to the uncompressed hashing trie
+            System.out.println(fileName + ": " + radixTrie.countNodes() + " nodes (" + radixTrie.countTrieNodes()
+                    + " uncompressed), memory " + radixTrie.calcMem() + " (TrieHashing " + trieHashing.calcMem() + ")");
+        }
+    }
+}
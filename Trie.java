@@ -1,6 +1,5 @@
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
 
 public class Trie {
 
@@ -15,12 +14,12 @@ public class Trie {
 
     // Inner class representing a node in the Trie
     private class TrieNode {
-        private TrieNode[] children; // Array to hold child nodes for each letter
+        private TrieNode[] children; // Array to hold child nodes for each letter, allocated with the first child
         private int wordLength; // Length of the word ending at this node
         private int importance; // Importance of the word
 
         TrieNode() {
-            children = new TrieNode[26]; // Supports lowercase letters a-z
+            children = null; // Leaves never allocate the 26-slot array
             wordLength = 0; // Default word length
             importance = 0; // Default importance
         }
@@ -41,6 +40,9 @@ public class Trie {
         char c = word.charAt(index); // Current character
         int position = c - 'a'; // Index in children array
 
+        if (node.children == null) {
+            node.children = new TrieNode[26]; // Supports lowercase letters a-z
+        }
         if (node.children[position] == null) {
             node.children[position] = new TrieNode(); // Create new node if not present
         }
@@ -48,6 +50,23 @@ public class Trie {
         insert(word, index + 1, node.children[position]); // Recursive call for next character
     }
 
+    // Method to insert an already lowercased word held in the first `length` characters of an array
+    public void insert(char[] word, int length) {
+        TrieNode node = root;
+        for (int index = 0; index < length; index++) {
+            int position = word[index] - 'a'; // Index in children array
+
+            if (node.children == null) {
+                node.children = new TrieNode[26]; // Supports lowercase letters a-z
+            }
+            if (node.children[position] == null) {
+                node.children[position] = new TrieNode(); // Create new node if not present
+            }
+            node = node.children[position];
+        }
+        node.wordLength = length; // Mark this node as end of the word
+    }
+
     // Method to get the importance of a word
     public int getImportance(String word) {
         TrieNode node = searchNode(word.toLowerCase(), root, 0); // Find the node for the word
@@ -60,6 +79,10 @@ public class Trie {
             return node; // Return the node if found or null if not
         }
 
+        if (node.children == null) {
+            return null; // A leaf has no children to continue with
+        }
+
         char c = word.charAt(index); // Current character
         int position = c - 'a'; // Index in children array
         return searchNode(word, node.children[position], index + 1); // Recursive search
@@ -67,19 +90,23 @@ public class Trie {
 
     // Method to print all words and their importance in the Trie
     public void printWords() {
-        printWords(root, ""); // Start printing from root node
+        new TrieTraversal<TrieNode>(this::forEachChild).walk(root, "", (node, path) -> {
+            if (node.wordLength > 0) {
+                System.out.println(path + " (Importance: " + node.importance + ")"); // Print word and its importance
+            }
+            return true;
+        });
     }
 
-    // Helper method for recursive word printing
-    private void printWords(TrieNode node, String prefix) {
-        if (node.wordLength > 0) {
-            System.out.println(prefix + " (Importance: " + node.importance + ")"); // Print word and its importance
+    // Helper method that lists the children of a node in alphabetical order, for TrieTraversal
+    private void forEachChild(TrieNode node, TrieTraversal<TrieNode> traversal) {
+        if (node.children == null) {
+            return; // A leaf has no children
         }
 
         for (int i = 0; i < 26; i++) {
             if (node.children[i] != null) {
-                char nextChar = (char) (i + 'a'); // Get the character for the child node
-                printWords(node.children[i], prefix + nextChar); // Recursive call with updated prefix
+                traversal.add((char) (i + 'a'), node.children[i]); // Get the character for the child node
             }
         }
     }
@@ -98,7 +125,7 @@ public class Trie {
         char c = word.charAt(index); // Current character
         int position = c - 'a'; // Index in children array
 
-        if (node.children[position] == null) {
+        if (node.children == null || node.children[position] == null) {
             return false; // Return false if character not found
         }
 
@@ -107,40 +134,27 @@ public class Trie {
 
     // Method to load words from a file into the Trie
     public void loadFile(String filePath) {
-        File file = new File(filePath); // Create file object
-
-        try (Scanner scanner = new Scanner(file)) {
-            while (scanner.hasNextLine()) {
-                String word = scanner.nextLine().trim(); // Read and trim each line
-
-                if (!word.isEmpty()) { // Ignore empty lines
-                    insert(word.toLowerCase(), 0); // Insert word into the Trie
-                    numOfWords++; // Increment word count
-                }
-            }
-        } catch (FileNotFoundException e) {
+        try {
+            numOfWords += DictionaryReader.readWords(filePath, this::insert); // Insert each trimmed, lowercased line
+        } catch (NoSuchFileException e) {
             System.out.println("Error: File not found - " + filePath); // Handle file not found error
+        } catch (IOException e) {
+            System.out.println("Error processing file: " + e.getMessage());
         }
     }
 
     // Method to calculate memory usage of the Trie
     public int calcMem() {
-        return calcMem(root); // Start calculation from root
-    }
-
-    // Helper method for recursive memory calculation
-    private int calcMem(TrieNode node) {
-        if (node == null) {
-            return 0; // Return 0 for null nodes
-        }
-
-        int memory = 26 * 8; // Memory for children array (26 pointers)
-        memory += 4 + 4 + 4; // Memory for wordLength, importance, and extra to match the hashing version
-        for (TrieNode child : node.children) {
-            memory += calcMem(child); // Add memory of child nodes
-        }
+        int[] memory = new int[1]; // Total so far, updated by the visitor
+        new TrieTraversal<TrieNode>(this::forEachChild).walk(root, "", (node, path) -> {
+            memory[0] += 4 + 4 + 4; // Memory for wordLength, importance, and extra to match the hashing version
+            if (node.children != null) {
+                memory[0] += 26 * 8; // Memory for children array (26 pointers)
+            }
+            return true;
+        });
 
-        return memory; // Return total memory
+        return memory[0]; // Return total memory
     }
 
     public static void main(String[] args) {
@@ -1,63 +1,408 @@
 //package test3;
 
 import java.io.File;
-import java.io.PrintWriter;
+import java.io.FileReader;
 import java.io.FileNotFoundException;
+import java.io.Reader;
+import java.nio.file.NoSuchFileException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 public class TrieApp {
 
-    private TrieNode root; // The root of the Trie structure
+    static final int MAX_TOKEN_LENGTH = 4096; // Longer usage log tokens are skipped, not counted
+    private static final int USES_PER_FOLD = 1 << 16; // Uses a concurrent importanceUpdate counts between folds
+    private volatile TrieNode root; // The root of the Trie structure
+    private int completionCacheSize; // Completions cached per node, or 0 when the cache is disabled
+    private final boolean concurrent; // Whether queries may run while other threads insert and update
+    private final ReentrantLock writeLock = new ReentrantLock(); // Serializes inserts in concurrent mode
+    private final StampedLock foldLock = new StampedLock(); // Lets queries see each fold whole or not at all
+    private final ThreadLocal<UsageCounts> usageCounts = ThreadLocal.withInitial(this::registerUsageCounts);
+    private final List<UsageCounts> allUsageCounts = new CopyOnWriteArrayList<>(); // Every thread's counts
+    private final AtomicLong importanceEpoch = new AtomicLong(); // Advanced after every change of importance
+    private final AtomicInteger longestWord = new AtomicInteger(); // No word in the Trie is longer
+    private volatile QueryCache queryCache; // Results of recent queryTopKWords calls, or null when disabled
 
     public TrieApp() {
+        this(false);
+    }
+
+    // Creates a Trie that is either single-threaded, or concurrent: queries then need no locking and
+    // may run while other threads insert words and update importance. Inserts copy a child container
+    // instead of changing it in place, so a reader never sees one half-updated or half-rehashed
+    public TrieApp(boolean concurrent) {
         this.root = new TrieNode();
+        this.concurrent = concurrent;
     }
 
-    // Inner class representing a node in the Trie
-    public class TrieNode {
-        private RobinHoodHashing children; // RobinHoodHashing structure for storing child nodes
-        private int wordLength; // Indicates if this node represents a complete word
-        private int importance;
+    // Inner class representing a node in the Trie. The children are kept in the smallest container
+    // that fits them: none, a single inline edge, a sorted array, a Robin Hood table or a 26-slot array
+    public static class TrieNode {
+        private static final AtomicIntegerFieldUpdater<TrieNode> IMPORTANCE =
+                AtomicIntegerFieldUpdater.newUpdater(TrieNode.class, "importance");
+        private static final AtomicIntegerFieldUpdater<TrieNode> MAX_IMPORTANCE =
+                AtomicIntegerFieldUpdater.newUpdater(TrieNode.class, "maxImportance");
+
+        private char edgeKey; // Key of the only child, while the node has exactly one
+        private volatile TrieNode edgeChild; // The only child, stored inline without a container
+        private volatile ChildTable children; // Container for two or more children, or null
+        private volatile int wordLength; // Indicates if this node represents a complete word
+        private volatile int importance;
+        private volatile int maxImportance; // Highest importance of any word in this node's subtree
+        private String[] topWords; // Cached best completions of this subtree, by descending importance
+        private int[] topImportance; // Importance of each cached completion
 
         public TrieNode() {
-            this.children = new RobinHoodHashing(); // Initializing RobinHoodHashing for child nodes
             this.wordLength = 0; // Default to 0, indicating no complete word
             this.importance = 0;
+            this.maxImportance = 0;
+        }
+
+        // Get the child for a given key, or null if there is none. The inline child is read before the
+        // container, because a concurrent insert publishes the container before it clears the inline child
+        public TrieNode getChild(char key) {
+            TrieNode edge = edgeChild;
+            ChildTable table = children;
+            if (table != null) {
+                return table.search(key);
+            }
+            return edge != null && edgeKey == key ? edge : null;
+        }
+
+        // Add a child, moving the children to a larger container when needed
+        public void addChild(char key, TrieNode child) {
+            if (children != null) {
+                children = children.add(key, child); // The container may promote itself
+            } else if (edgeChild == null) {
+                edgeKey = key; // The first child is stored inline
+                edgeChild = child;
+            } else {
+                children = new SortedChildren(edgeKey, edgeChild).add(key, child); // The second child needs a container
+                edgeChild = null;
+            }
+        }
+
+        // Add a child without changing any container that a concurrent reader may be using: the child
+        // goes into a copy of the container, which is then published with a single volatile write
+        public void publishChild(char key, TrieNode child) {
+            if (children != null) {
+                children = children.copy().add(key, child);
+            } else {
+                addChild(key, child); // Setting the inline child or moving it to a new container is safe too
+            }
+        }
+
+        // Add to the importance of the word ending here, returning the new importance. Only a
+        // concurrent Trie pays for an atomic update, so that updates from several threads are not lost
+        private int addImportance(int amount, boolean atomic) {
+            int newImportance = atomic ? IMPORTANCE.addAndGet(this, amount) : (importance += amount);
+            raiseMaxImportance(newImportance, atomic);
+            return newImportance;
+        }
+
+        // Raise the subtree maximum to at least the given importance. It never decreases, even when
+        // several threads of a concurrent Trie raise it at once
+        private void raiseMaxImportance(int importance, boolean atomic) {
+            int current = maxImportance;
+            if (!atomic) {
+                if (current < importance) {
+                    maxImportance = importance;
+                }
+                return;
+            }
+            while (current < importance && !MAX_IMPORTANCE.compareAndSet(this, current, importance)) {
+                current = maxImportance;
+            }
+        }
+
+        // Set all children at once, from keys in ascending order. They go straight into the container
+        // that adding them one by one would end with, sized so that nothing is promoted or rehashed
+        private void setChildren(char[] keys, TrieNode[] trieNodes, int count) {
+            if (count == 1) {
+                edgeKey = keys[0];
+                edgeChild = trieNodes[0];
+            } else if (count > 1 && count <= SortedChildren.MAX_SIZE) {
+                children = new SortedChildren(Arrays.copyOf(keys, count), Arrays.copyOf(trieNodes, count));
+            } else if (count > RobinHoodHashing.DENSE_SIZE && DenseChildren.fits(keys[0])
+                    && DenseChildren.fits(keys[count - 1])) {
+                DenseChildren dense = new DenseChildren(); // Sorted keys all fit if the first and last do
+                for (int i = 0; i < count; i++) {
+                    dense.add(keys[i], trieNodes[i]);
+                }
+                children = dense;
+            } else if (count > 1) {
+                RobinHoodHashing table = new RobinHoodHashing(RobinHoodHashing.capacityFor(count));
+                for (int i = 0; i < count; i++) {
+                    table.insert(keys[i], trieNodes[i]);
+                }
+                children = table;
+            }
+        }
+
+        // Get the number of children
+        public int childCount() {
+            TrieNode edge = edgeChild;
+            ChildTable table = children;
+            if (table != null) {
+                return table.size();
+            }
+            return edge != null ? 1 : 0;
+        }
+
+        // Copy the keys and TrieNodes of all children into the given arrays, returning their count. In
+        // concurrent mode a child may be added after the arrays were sized from childCount; then nothing
+        // is copied and -1 is returned, so the caller can size the arrays again
+        public int getChildren(char[] keys, TrieNode[] trieNodes) {
+            TrieNode edge = edgeChild;
+            ChildTable table = children;
+            if (table != null) {
+                return table.size() <= keys.length ? table.getChildren(keys, trieNodes) : -1;
+            }
+            if (edge == null) {
+                return 0;
+            }
+            if (keys.length == 0) {
+                return -1;
+            }
+            keys[0] = edgeKey;
+            trieNodes[0] = edge;
+            return 1;
+        }
+
+        // Check whether this node represents a complete word
+        public boolean isWord() {
+            return wordLength > 0;
+        }
+
+        // Get the importance of the word ending at this node
+        public int getImportance() {
+            return importance;
+        }
+
+        // Get the highest importance of any word in this node's subtree
+        public int getMaxImportance() {
+            return maxImportance;
+        }
+    }
+
+    // Container for the children of a TrieNode with two or more children
+    public abstract static class ChildTable {
+        // Search for the TrieNode associated with a given character key
+        public abstract TrieNode search(char key);
+
+        // Add a key and its TrieNode, returning the container that holds the children afterwards
+        public abstract ChildTable add(char key, TrieNode trieNode);
+
+        // Get the number of children in the container
+        public abstract int size();
+
+        // Copy the container, so that children can be added without changing this one
+        public abstract ChildTable copy();
+
+        // Copy the keys and TrieNodes of all children into the given arrays, returning their count
+        public abstract int getChildren(char[] keys, TrieNode[] trieNodes);
+
+        // Calculate the memory used by the container
+        public abstract int calcMem();
+    }
+
+    // Small container that keeps up to MAX_SIZE children in arrays sorted by key
+    public static class SortedChildren extends ChildTable {
+        private static final int MAX_SIZE = 4; // Larger nodes move to a Robin Hood table
+
+        private char[] keys; // Sorted character keys
+        private TrieNode[] trieNodes; // TrieNode of each key
+
+        public SortedChildren(char key, TrieNode trieNode) {
+            this.keys = new char[] { key };
+            this.trieNodes = new TrieNode[] { trieNode };
+        }
+
+        // Create a container that takes over arrays already sorted by key
+        private SortedChildren(char[] keys, TrieNode[] trieNodes) {
+            this.keys = keys;
+            this.trieNodes = trieNodes;
+        }
+
+        public TrieNode search(char key) {
+            for (int i = 0; i < keys.length && keys[i] <= key; i++) { // Stop once past the key
+                if (keys[i] == key) {
+                    return trieNodes[i];
+                }
+            }
+            return null;
+        }
+
+        public ChildTable add(char key, TrieNode trieNode) {
+            if (keys.length == MAX_SIZE) {
+                // Move all children into a Robin Hood table that holds them without rehashing
+                RobinHoodHashing table = new RobinHoodHashing(11);
+                for (int i = 0; i < keys.length; i++) {
+                    table.insert(keys[i], trieNodes[i]);
+                }
+                table.insert(key, trieNode);
+                return table;
+            }
+
+            // Grow the arrays by one, keeping them sorted
+            int position = 0;
+            while (position < keys.length && keys[position] < key) {
+                position++;
+            }
+            char[] newKeys = new char[keys.length + 1];
+            TrieNode[] newTrieNodes = new TrieNode[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, position);
+            System.arraycopy(trieNodes, 0, newTrieNodes, 0, position);
+            newKeys[position] = key;
+            newTrieNodes[position] = trieNode;
+            System.arraycopy(keys, position, newKeys, position + 1, keys.length - position);
+            System.arraycopy(trieNodes, position, newTrieNodes, position + 1, keys.length - position);
+            keys = newKeys;
+            trieNodes = newTrieNodes;
+            return this;
+        }
+
+        public int size() {
+            return keys.length;
+        }
+
+        public ChildTable copy() {
+            return new SortedChildren(keys, trieNodes); // add never changes the arrays, it replaces them
+        }
+
+        public int getChildren(char[] keys, TrieNode[] trieNodes) {
+            System.arraycopy(this.keys, 0, keys, 0, this.keys.length);
+            System.arraycopy(this.trieNodes, 0, trieNodes, 0, this.trieNodes.length);
+            return this.keys.length;
+        }
+
+        public int calcMem() {
+            return keys.length * (2 /* char */ + 8 /* trieNode reference */);
         }
     }
 
-    // Inner class implementing Robin Hood Hashing
-    public class RobinHoodHashing {
-        private class Element {
-            char key; // The character key for this element
-            int probeLength; // Distance from the original hash index
-            TrieNode trieNode; // Reference to the associated TrieNode
+    // Container for nodes with many children: one slot per letter, indexed directly by the key
+    public static class DenseChildren extends ChildTable {
+        private TrieNode[] trieNodes = new TrieNode[26]; // Supports lowercase letters a-z
+        private int size; // Number of children
+
+        // Check whether a key has a slot in a dense container
+        public static boolean fits(char key) {
+            return key >= 'a' && key <= 'z';
+        }
+
+        public TrieNode search(char key) {
+            return fits(key) ? trieNodes[key - 'a'] : null;
+        }
+
+        public ChildTable add(char key, TrieNode trieNode) {
+            if (!fits(key)) {
+                // Fall back to the largest Robin Hood table for keys outside a-z
+                RobinHoodHashing table = new RobinHoodHashing(29);
+                for (int i = 0; i < 26; i++) {
+                    if (trieNodes[i] != null) {
+                        table.insert((char) ('a' + i), trieNodes[i]);
+                    }
+                }
+                table.insert(key, trieNode);
+                return table;
+            }
+
+            trieNodes[key - 'a'] = trieNode;
+            size++;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public ChildTable copy() {
+            DenseChildren dense = new DenseChildren();
+            dense.trieNodes = trieNodes.clone();
+            dense.size = size;
+            return dense;
+        }
 
-            Element(char key, TrieNode trieNode) {
-                this.key = key;
-                this.trieNode = trieNode;
-                this.probeLength = 0;
+        public int getChildren(char[] keys, TrieNode[] trieNodes) {
+            int count = 0;
+            for (int i = 0; i < 26; i++) {
+                if (this.trieNodes[i] != null) {
+                    keys[count] = (char) ('a' + i);
+                    trieNodes[count] = this.trieNodes[i];
+                    count++;
+                }
             }
+            return count;
+        }
+
+        public int calcMem() {
+            return 4 /* size */ + 26 * 8 /* trieNode references */;
         }
+    }
 
-        private Element[] table; // The hash table
+    // Inner class implementing Robin Hood Hashing, with the table stored as parallel arrays
+    public static class RobinHoodHashing extends ChildTable {
+        private static final int DENSE_SIZE = 12; // Above this size a 26-slot array uses less memory
+
+        private char[] keys; // The character key stored in each slot
+        private TrieNode[] trieNodes; // The TrieNode stored in each slot, or null if the slot is empty
         private int capacity; // Current capacity of the table
         private int size; // Number of elements in the table
         private int maxProbeLength; // Maximum probe length observed
 
-        public RobinHoodHashing() {
-            this.capacity = 5; // Initial size of the table
+        // Create a table with the given capacity, which must be 5, 11, 19 or 29
+        public RobinHoodHashing(int capacity) {
+            this.capacity = capacity; // Initial size of the table
             this.size = 0; // Initially empty
             this.maxProbeLength = 0;
-            this.table = new Element[capacity];
+            this.keys = new char[capacity];
+            this.trieNodes = new TrieNode[capacity];
+        }
+
+        // Get the capacity that inserting `size` elements one by one into a table of 11 ends with
+        public static int capacityFor(int size) {
+            if (size <= 10) {
+                return 11; // insert rehashes once more than 90% of the slots are in use
+            }
+            return size <= 18 ? 19 : 29;
         }
 
         private int hash(char key) {
             return key % capacity; // Hash function based on the ASCII value of the character modulo the capacity
         }
 
+        // Distance of the element in slot `index` from its original hash index. It is derived from the
+        // key rather than stored, so the table needs no third array
+        private int probeLength(int index) {
+            return (index - hash(keys[index]) + capacity) % capacity;
+        }
+
         private void rehash() {
-            Element[] oldTable = table;
+            char[] oldKeys = keys;
+            TrieNode[] oldTrieNodes = trieNodes;
 
             // Update the capacity
             if (capacity == 5)
@@ -68,14 +413,15 @@ public class TrieApp {
                 capacity = 29;
 
             // Create a new hash table with the updated capacity
-            table = new Element[capacity];
+            keys = new char[capacity];
+            trieNodes = new TrieNode[capacity];
             size = 0; // Reset size
             maxProbeLength = 0; // Reset max probe length
 
             // Reinsert all elements into the new table
-            for (Element e : oldTable) {
-                if (e != null) {
-                    insert(e.key, e.trieNode); // Rehash and reinsert elements
+            for (int i = 0; i < oldTrieNodes.length; i++) {
+                if (oldTrieNodes[i] != null) {
+                    insert(oldKeys[i], oldTrieNodes[i]); // Rehash and reinsert elements
                 }
             }
         }
@@ -87,20 +433,26 @@ public class TrieApp {
                 rehash(); // Rehash the table to increase capacity and redistribute elements
             }
 
-            // Create a new element with the provided key and TrieNode
-            Element newElement = new Element(key, trieNode);
             int index = hash(key); // Calculate the initial hash index for the key
-            int probe = 0; // Initialize probe length for tracking collision resolution
+            int probe = 0; // Probe length of the element being placed
 
             // Resolve collisions using linear probing and Robin Hood Hashing
-            while (table[index] != null) { // Continue if the current slot is occupied
-                Element current = table[index];
-
+            while (trieNodes[index] != null) { // Continue if the current slot is occupied
                 // Robin Hood technique: prioritize elements with shorter probe lengths
-                if (current.probeLength < probe) {
-                    // Swap the current element with the new element
-                    table[index] = newElement;
-                    newElement = current; // The displaced element will now be inserted elsewhere
+                int currentProbe = probeLength(index);
+                if (currentProbe < probe) {
+                    // Swap the element being placed with the current one, field by field
+                    char displacedKey = keys[index];
+                    TrieNode displacedTrieNode = trieNodes[index];
+
+                    keys[index] = key;
+                    trieNodes[index] = trieNode;
+                    maxProbeLength = Math.max(maxProbeLength, probe);
+
+                    // The displaced element will now be inserted elsewhere
+                    key = displacedKey;
+                    trieNode = displacedTrieNode;
+                    probe = currentProbe;
                 }
 
                 // Move to the next slot (circularly, using modulo)
@@ -108,9 +460,9 @@ public class TrieApp {
                 probe++; // Increment the probe length
             }
 
-            // Place the new element in the appropriate slot
-            table[index] = newElement;
-            newElement.probeLength = probe; // Update the probe length for the new element
+            // Place the element in the empty slot
+            keys[index] = key;
+            trieNodes[index] = trieNode;
             size++; // Increment the size of the hash table
             maxProbeLength = Math.max(maxProbeLength, probe); // Update the maximum probe length
         }
@@ -121,9 +473,9 @@ public class TrieApp {
             int probe = 0; // Initialize probe length for tracking
 
             // Traverse the table to locate the key
-            while (table[index] != null) { // Continue as long as the slot is not empty
-                if (table[index].key == key) { // Check if the current slot contains the key
-                    return table[index].trieNode; // Return the associated TrieNode if found
+            while (trieNodes[index] != null) { // Continue as long as the slot is not empty
+                if (keys[index] == key) { // Check if the current slot contains the key
+                    return trieNodes[index]; // Return the associated TrieNode if found
                 }
 
                 // Move to the next slot (circularly, using modulo)
@@ -141,11 +493,441 @@ public class TrieApp {
             return null;
         }
 
+        public ChildTable add(char key, TrieNode trieNode) {
+            if (size == DENSE_SIZE && DenseChildren.fits(key)) {
+                // Move to a 26-slot array if every key is a lowercase letter
+                DenseChildren dense = new DenseChildren();
+                for (int i = 0; i < capacity; i++) {
+                    if (trieNodes[i] != null) {
+                        if (!DenseChildren.fits(keys[i])) {
+                            insert(key, trieNode); // Some key has no slot, so stay a hash table
+                            return this;
+                        }
+                        dense.add(keys[i], trieNodes[i]);
+                    }
+                }
+                return dense.add(key, trieNode);
+            }
+
+            insert(key, trieNode);
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public ChildTable copy() {
+            RobinHoodHashing table = new RobinHoodHashing(capacity);
+            System.arraycopy(keys, 0, table.keys, 0, capacity);
+            System.arraycopy(trieNodes, 0, table.trieNodes, 0, capacity);
+            table.size = size;
+            table.maxProbeLength = maxProbeLength;
+            return table;
+        }
+
+        public int calcMem() {
+            return 12 /* capacity, size, maxProbeLength */ + capacity * (2 /* char */ + 8 /* trieNode reference */);
+        }
+
+        // Copy the keys and TrieNodes of all elements into the given arrays, returning their count
+        public int getChildren(char[] keys, TrieNode[] trieNodes) {
+            int count = 0;
+            for (int i = 0; i < capacity; i++) {
+                if (this.trieNodes[i] != null) {
+                    keys[count] = this.keys[i];
+                    trieNodes[count] = this.trieNodes[i];
+                    count++;
+                }
+            }
+            return count;
+        }
+
+    }
+
+    // Uses of words counted by one thread and not yet folded into the Trie. Only the owning thread
+    // adds to them, so the lock is uncontended except while a fold takes the counts away
+    private static class UsageCounts {
+        private final Thread owner;
+        private HashMap<String, int[]> counts = new HashMap<>(); // Pending uses of each word
+
+        private UsageCounts(Thread owner) {
+            this.owner = owner;
+        }
+
+        private synchronized void add(String word) {
+            int[] count = counts.get(word);
+            if (count == null) {
+                counts.put(word, new int[] { 1 });
+            } else {
+                count[0]++;
+            }
+        }
+
+        // Take all pending counts, leaving an empty map for the owner to continue with
+        private synchronized HashMap<String, int[]> drain() {
+            HashMap<String, int[]> drained = counts;
+            counts = new HashMap<>();
+            return drained;
+        }
+    }
+
+    // Lists the children of nodes for TrieTraversal, either in container order or most important
+    // subtree first, through arrays that are reused from node to node
+    private static class ChildLister implements TrieTraversal.Children<TrieNode> {
+        private final boolean byImportance;
+        private char[] keys = new char[4];
+        private TrieNode[] nodes = new TrieNode[4];
+
+        private ChildLister(boolean byImportance) {
+            this.byImportance = byImportance;
+        }
+
+        // Fills keys and nodes with the children of a node, returning how many there are
+        private int list(TrieNode node) {
+            int count;
+            while ((count = byImportance ? getChildrenByImportance(node, keys, nodes)
+                    : node.getChildren(keys, nodes)) < 0) {
+                // Size the arrays again for a node with more children, or one a concurrent insert added to
+                keys = new char[Math.max(node.childCount(), keys.length * 2)];
+                nodes = new TrieNode[keys.length];
+            }
+            return count;
+        }
+
+        public void forEach(TrieNode node, TrieTraversal<TrieNode> traversal) {
+            int count = list(node);
+            for (int i = 0; i < count; i++) {
+                traversal.add(keys[i], nodes[i]);
+            }
+        }
+    }
+
+    // The letter counts of a path next to those of a target word, for the similarity test of
+    // areCharactersSimilar. The counts follow the path one character at a time as a walk moves, and
+    // keep the shared and total sums of that test up to date instead of recounting both words
+    static class LetterHistogram {
+        private final int[] targetCounts = new int[30];
+        private final int[] pathCounts = new int[30];
+        private final int targetLetters; // Letters of the target that are counted
+        private int shared; // Sum of the smaller count of each letter
+        private int total; // Sum of the larger count of each letter
+        private char[] counted = new char[32]; // The path the counts are for
+        private int length;
+
+        LetterHistogram(String targetWord) {
+            int letters = 0;
+            for (int i = 0; i < targetWord.length(); i++) {
+                char c = targetWord.charAt(i);
+                if (c - 'a' < 30 && c - 'a' >= 0) { // The same range as areCharactersSimilar
+                    targetCounts[c - 'a']++;
+                    letters++;
+                }
+            }
+            this.targetLetters = letters;
+            this.total = letters; // The empty path shares nothing
+        }
+
+        // Makes the counts those of a path. Only the characters after the part it shares with the
+        // last path are taken out and put in
+        private void moveTo(CharSequence path) {
+            int kept = Math.min(length, path.length());
+            for (int i = 0; i < kept; i++) {
+                if (counted[i] != path.charAt(i)) {
+                    kept = i;
+                    break;
+                }
+            }
+            moveTo(path, kept);
+        }
+
+        // Makes the counts those of the path of a node a walk entered, for a walk that also did so
+        // for the node's parent. The counts then hold the parent's path once the nodes left since
+        // are taken out, so each character is put in and taken out once per walk
+        private void moveToChild(CharSequence path) {
+            moveTo(path, Math.max(path.length() - 1, 0));
+        }
+
+        // Makes the counts those of a path whose first `kept` characters they already hold
+        private void moveTo(CharSequence path, int kept) {
+            int depth = path.length();
+            kept = Math.min(kept, length);
+            while (length > kept) {
+                remove(counted[--length]);
+            }
+            if (depth > counted.length) {
+                counted = Arrays.copyOf(counted, Math.max(depth, counted.length * 2));
+            }
+            while (length < depth) {
+                char c = path.charAt(length);
+                counted[length++] = c;
+                add(c);
+            }
+        }
+
+        private void add(char c) {
+            if (c - 'a' < 30 && c - 'a' >= 0) {
+                if (pathCounts[c - 'a']++ < targetCounts[c - 'a']) {
+                    shared++; // One more of a letter the target has more of
+                } else {
+                    total++;
+                }
+            }
+        }
+
+        private void remove(char c) {
+            if (c - 'a' < 30 && c - 'a' >= 0) {
+                if (--pathCounts[c - 'a'] < targetCounts[c - 'a']) {
+                    shared--;
+                } else {
+                    total--;
+                }
+            }
+        }
+
+        // Whether the path is similar to the target, exactly as areCharactersSimilar decides it
+        private boolean isSimilar() {
+            return (double) shared / total >= 0.7;
+        }
+
+        // Whether adding at most `letters` more characters to the path can make it similar. Each one
+        // adds at most one to shared, only while the target has letters left to share, and total
+        // never shrinks
+        private boolean canBecomeSimilar(int letters) {
+            int reachable = shared + Math.min(letters, targetLetters - shared);
+            return (double) reachable / total >= 0.7;
+        }
+    }
+
+    // Collects words that start with the target, have its length, or have a similar length and
+    // similar characters, in one traversal with the most important subtrees first
+    private static class MatchingWordsCollector implements TrieTraversal.Visitor<TrieNode> {
+        private final TrieTraversal<TrieNode> traversal;
+        private final String targetWord;
+        private final MinHeap heap;
+        private final LetterHistogram histogram;
+        private boolean[] onPrefixPath = new boolean[32]; // Whether the path to each depth agrees with the target
+
+        private MatchingWordsCollector(TrieTraversal<TrieNode> traversal, String targetWord, MinHeap heap) {
+            this.traversal = traversal;
+            this.targetWord = targetWord;
+            this.heap = heap;
+            this.histogram = new LetterHistogram(targetWord);
+        }
+
+        public boolean enter(TrieNode node, CharSequence path) {
+            if (heap.rejects(node.maxImportance)) {
+                traversal.skipSiblings(); // Nor can any word in a later, less important sibling's
+                return false; // No word in this subtree can enter the heap
+            }
+
+            int depth = path.length();
+            if (depth == onPrefixPath.length) {
+                onPrefixPath = Arrays.copyOf(onPrefixPath, depth * 2);
+            }
+            onPrefixPath[depth] = depth == 0 || (onPrefixPath[depth - 1]
+                    && (depth > targetWord.length() || targetWord.charAt(depth - 1) == path.charAt(depth - 1)));
+            boolean inPrefix = onPrefixPath[depth] && depth >= targetWord.length(); // The path starts with the target
+
+            if (node.wordLength > 0 && node.importance > 0 && matchesTopKRules(path, targetWord, inPrefix, histogram)) {
+                heap.insert(path.toString(), node.importance); // Only matches allocate a String
+            }
+            return canMatchBelow(path, targetWord, inPrefix);
+        }
+    }
+
+    // Runs the walks of MatchingWordsCollector for many targets as one walk. Each query sees the same
+    // nodes in the same order as its own walk would, so it finds the same words, but every node is
+    // read and has its children listed once for all of them. Lists of the queries still visiting the
+    // subtree of each node on the path keep track of which walks are at a node
+    private static class BatchCollector implements TrieTraversal.Visitor<TrieNode> {
+        private final TrieTraversal<TrieNode> traversal;
+        private final String[] targetWords;
+        private final MinHeap[] heaps;
+        private final LetterHistogram[] histograms; // Created when a query first reaches a word
+        private int[][] active = new int[32][]; // Queries visiting the subtree of the path's node at each depth
+        private boolean[][] onPrefixPath = new boolean[32][]; // Whether the path agrees with each one's target
+        private int[] activeCount = new int[32];
+
+        private BatchCollector(TrieTraversal<TrieNode> traversal, String[] targetWords, MinHeap[] heaps) {
+            this.traversal = traversal;
+            this.targetWords = targetWords;
+            this.heaps = heaps;
+            this.histograms = new LetterHistogram[targetWords.length];
+        }
+
+        public boolean enter(TrieNode node, CharSequence path) {
+            int depth = path.length();
+            if (depth == active.length) {
+                active = Arrays.copyOf(active, depth * 2);
+                onPrefixPath = Arrays.copyOf(onPrefixPath, depth * 2);
+                activeCount = Arrays.copyOf(activeCount, depth * 2);
+            }
+            if (active[depth] == null) {
+                active[depth] = new int[targetWords.length];
+                onPrefixPath[depth] = new boolean[targetWords.length];
+            }
+
+            int count = 0;
+            String word = null; // The word ending here, made once for all the queries it matches
+            int queries = depth == 0 ? targetWords.length : activeCount[depth - 1];
+            for (int i = 0; i < queries; ) {
+                int query = depth == 0 ? i : active[depth - 1][i];
+                if (heaps[query].rejects(node.maxImportance)) {
+                    if (depth > 0) {
+                        // Nor can any word in a later, less important sibling's subtree, so this
+                        // query is done with the siblings
+                        queries = --activeCount[depth - 1];
+                        active[depth - 1][i] = active[depth - 1][queries];
+                        onPrefixPath[depth - 1][i] = onPrefixPath[depth - 1][queries];
+                    } else {
+                        i++;
+                    }
+                    continue;
+                }
+
+                String targetWord = targetWords[query];
+                boolean onPrefix = depth == 0 || (onPrefixPath[depth - 1][i]
+                        && (depth > targetWord.length() || targetWord.charAt(depth - 1) == path.charAt(depth - 1)));
+                boolean inPrefix = onPrefix && depth >= targetWord.length();
+
+                if (node.wordLength > 0 && node.importance > 0
+                        && matchesTopKRules(path, targetWord, inPrefix, histogram(query))) {
+                    if (word == null) {
+                        word = path.toString();
+                    }
+                    heaps[query].insert(word, node.importance);
+                }
+
+                if (canMatchBelow(path, targetWord, inPrefix)) {
+                    active[depth][count] = query;
+                    onPrefixPath[depth][count] = onPrefix;
+                    count++;
+                }
+                i++;
+            }
+
+            if (depth > 0 && activeCount[depth - 1] == 0) {
+                traversal.skipSiblings(); // Every query is done with the siblings
+            }
+            activeCount[depth] = count;
+            return count > 0;
+        }
+
+        private LetterHistogram histogram(int query) {
+            if (histograms[query] == null) {
+                histograms[query] = new LetterHistogram(targetWords[query]);
+            }
+            return histograms[query];
+        }
+    }
+
+    // Collects words of a similar length with characters similar to the target's, leaving out
+    // subtrees whose paths cannot share enough letters with it in the characters left
+    private static class SimilarWordsCollector implements TrieTraversal.Visitor<TrieNode> {
+        private final MinHeap heap;
+        private final LetterHistogram histogram;
+        private final int minLength; // Lengths of the words that can match
+        private final int maxLength;
+
+        private SimilarWordsCollector(String targetWord, MinHeap heap) {
+            this.heap = heap;
+            this.histogram = new LetterHistogram(targetWord);
+            this.minLength = targetWord.length() - 1;
+            this.maxLength = targetWord.length() + 2;
+        }
+
+        public boolean enter(TrieNode node, CharSequence path) {
+            // Decide on the path first, so the nodes of most pruned subtrees are never read
+            histogram.moveToChild(path);
+            int depth = path.length();
+            boolean similar = depth >= minLength && histogram.isSimilar();
+            boolean descend = depth < maxLength && histogram.canBecomeSimilar(maxLength - depth);
+            if (!similar && !descend) {
+                return false;
+            }
+
+            if (heap.rejects(node.maxImportance)) {
+                return false; // No word in this subtree can enter the heap
+            }
+            if (similar && node.wordLength > 0 && node.importance > 0) {
+                heap.insert(path.toString(), node.importance);
+            }
+            return descend;
+        }
+    }
+
+    // Collects the words within an edit distance of the target. Each depth keeps the row of the
+    // Levenshtein table for the path to it, computed from the row above, so a subtree is dropped as
+    // soon as no cell of its row is within the distance
+    private static class FuzzyWordsCollector implements TrieTraversal.Visitor<TrieNode> {
+        private final TrieTraversal<TrieNode> traversal;
+        private final String targetWord;
+        private final int maxDistance;
+        private final MinHeap heap;
+        private int[][] rows; // rows[d][j]: edit distance between the path to depth d and the target's first j characters
+
+        private FuzzyWordsCollector(TrieTraversal<TrieNode> traversal, String targetWord, int maxDistance,
+                MinHeap heap) {
+            this.traversal = traversal;
+            this.targetWord = targetWord;
+            this.maxDistance = maxDistance;
+            this.heap = heap;
+            this.rows = new int[targetWord.length() + maxDistance + 1][targetWord.length() + 1];
+            for (int j = 0; j <= targetWord.length(); j++) {
+                rows[0][j] = j; // The empty path needs j insertions
+            }
+        }
+
+        public boolean enter(TrieNode node, CharSequence path) {
+            if (heap.rejects(node.maxImportance)) {
+                traversal.skipSiblings(); // Nor can any word in a later, less important sibling's
+                return false; // No word in this subtree can enter the heap
+            }
+
+            int depth = path.length();
+            int[] row = rows[depth];
+            if (depth > 0) {
+                // Only cells within maxDistance of the diagonal can be within maxDistance, so the rest
+                // of the row is left at maxDistance + 1, on both sides of the band the next row reads
+                int[] above = rows[depth - 1];
+                char c = path.charAt(depth - 1);
+                int from = Math.max(1, depth - maxDistance);
+                int to = Math.min(targetWord.length(), depth + maxDistance);
+                row[0] = depth; // Deleting the whole path
+                if (from > 1) {
+                    row[from - 1] = maxDistance + 1;
+                }
+                int minimum = depth <= maxDistance ? depth : maxDistance + 1;
+                for (int j = from; j <= to; j++) {
+                    int cost = targetWord.charAt(j - 1) == c ? 0 : 1;
+                    row[j] = Math.min(Math.min(row[j - 1] + 1, above[j] + 1), above[j - 1] + cost);
+                    minimum = Math.min(minimum, row[j]);
+                }
+                if (to < targetWord.length()) {
+                    row[to + 1] = maxDistance + 1;
+                }
+                if (minimum > maxDistance) {
+                    return false; // Every word below is at least this far from the target
+                }
+            }
+
+            // The last cell only holds a distance when the band reaches it; outside the band the row
+            // keeps whatever an earlier path left there
+            if (node.wordLength > 0 && node.importance > 0 && targetWord.length() - depth <= maxDistance
+                    && row[targetWord.length()] <= maxDistance) {
+                heap.insert(path.toString(), node.importance);
+            }
+
+            // A longer path is more than maxDistance insertions away; the row minimum stops the walk there
+            return depth + 1 < rows.length;
+        }
     }
 
-    public class MinHeap {
+    public static class MinHeap {
         private String[] heap; // Array to store words
         private int[] importance; // Array to store importance values for each word
+        private HashMap<String, Integer> positions; // Index of each word in the heap arrays
         private int size; // Current number of elements in the heap
         private int capacity; // Maximum number of elements the heap can hold
 
@@ -155,29 +937,39 @@ public class TrieApp {
             this.size = 0; // Initially, the heap is empty
             this.heap = new String[capacity]; // Initialize the array for words
             this.importance = new int[capacity]; // Initialize the array for importance values
+            this.positions = new HashMap<>(); // Initially, no word has a position
         }
 
         // Get the index of the parent of the node at index `i`
-        private int parent(int i) {
+        private static int parent(int i) {
             return (i - 1) / 2;
         }
 
         // Get the index of the left child of the node at index `i`
-        private int leftChild(int i) {
+        private static int leftChild(int i) {
             return 2 * i + 1;
         }
 
         // Get the index of the right child of the node at index `i`
-        private int rightChild(int i) {
+        private static int rightChild(int i) {
             return 2 * i + 2;
         }
 
         // Swap the elements at indices `i` and `j` in the heap
         private void swap(int i, int j) {
+            swap(heap, importance, i, j);
+
+            // Keep the position index in step with the arrays
+            positions.put(heap[i], i);
+            positions.put(heap[j], j);
+        }
+
+        // Swap the elements at indices `i` and `j` of a pair of word and importance arrays
+        private static void swap(String[] words, int[] importance, int i, int j) {
             // Swap words
-            String tempWord = heap[i];
-            heap[i] = heap[j];
-            heap[j] = tempWord;
+            String tempWord = words[i];
+            words[i] = words[j];
+            words[j] = tempWord;
 
             // Swap corresponding importance values
             int tempImportance = importance[i];
@@ -187,31 +979,31 @@ public class TrieApp {
 
         // Insert a word and its importance value into the heap
         public void insert(String word, int wordImportance) {
-            if (contains(word)) {
-                return; // If the word already exists in the heap, skip insertion
+            Integer position = positions.get(word);
+            if (position != null) {
+                // The word is already in the heap, so keep the higher of its two importance values
+                if (wordImportance > importance[position]) {
+                    importance[position] = wordImportance;
+                    heapify(position); // A larger value can only move down in a min-heap
+                }
+                return;
             }
 
             if (size < capacity) {
                 // If the heap is not full, insert the word at the end
                 heap[size] = word;
                 importance[size] = wordImportance;
-                int current = size++; // Increment size after inserting
-
-                // Restore the heap property by percolating the new element up
-                while (current > 0 && importance[current] < importance[parent(current)]) {
-                    swap(current, parent(current)); // Swap with the parent if necessary
-                    current = parent(current); // Move to the parent's index
-                }
-            } else {
-                // If the heap is full, compare with the root (minimum)
-                if (wordImportance > importance[0]) {
-                    // Replace the root with the new word if its importance is greater
-                    heap[0] = word;
-                    importance[0] = wordImportance;
-
-                    // Restore the heap property by heapifying down
-                    heapify(0);
-                }
+                positions.put(word, size);
+                percolateUp(size++); // Increment size after inserting
+            } else if (capacity > 0 && wordImportance > importance[0]) {
+                // If the heap is full, replace the root (minimum) if the new word is more important
+                positions.remove(heap[0]);
+                heap[0] = word;
+                importance[0] = wordImportance;
+                positions.put(word, 0);
+
+                // Restore the heap property by heapifying down
+                heapify(0);
             }
         }
 
@@ -223,11 +1015,16 @@ public class TrieApp {
 
             // Store the root word to return later
             String rootWord = heap[0];
+            positions.remove(rootWord);
 
             // Replace the root with the last element in the heap
-            heap[0] = heap[size - 1];
-            importance[0] = importance[size - 1];
             size--; // Decrease the size of the heap
+            if (size > 0) {
+                heap[0] = heap[size];
+                importance[0] = importance[size];
+                positions.put(heap[0], 0);
+            }
+            heap[size] = null; // Drop the reference to the removed word
 
             // Restore the heap property by heapifying down
             heapify(0);
@@ -235,8 +1032,28 @@ public class TrieApp {
             return rootWord; // Return the removed word
         }
 
+        // Restore the min-heap property by percolating up from index `i`
+        private void percolateUp(int i) {
+            while (i > 0 && importance[i] < importance[parent(i)]) {
+                swap(i, parent(i)); // Swap with the parent if necessary
+                i = parent(i); // Move to the parent's index
+            }
+        }
+
         // Restore the min-heap property by percolating down from index `i`
         private void heapify(int i) {
+            while (true) {
+                int smallest = smallestOf(importance, i, size);
+                if (smallest == i) {
+                    return; // The subtree rooted at `i` is a heap again
+                }
+                swap(i, smallest);
+                i = smallest; // Continue with the affected subtree
+            }
+        }
+
+        // Get the index of the smallest of node `i` and its children among the first `size` elements
+        private static int smallestOf(int[] importance, int i, int size) {
             int left = leftChild(i); // Index of the left child
             int right = rightChild(i); // Index of the right child
             int smallest = i; // Assume the current node is the smallest
@@ -251,67 +1068,467 @@ public class TrieApp {
                 smallest = right;
             }
 
-            // If the smallest node is not the current node, swap and recurse
-            if (smallest != i) {
-                swap(i, smallest);
-                heapify(smallest); // Recursively heapify the affected subtree
-            }
+            return smallest;
         }
 
-        // Get the top `k` words from the heap, in ascending order of importance
+        // Get the top `k` words from the heap, in descending order of importance.
+        // The heap itself is left unchanged
         public String[] getTopKWords(int k) {
-            String[] result = new String[Math.min(k, size)]; // Create an array for the result
-            for (int i = 0; i < result.length; i++) {
-                result[i] = removeMin(); // Remove and add the smallest word to the result
+            // Heap-sort a copy of the arrays: moving each minimum to the end leaves them descending
+            String[] words = Arrays.copyOf(heap, size);
+            int[] values = Arrays.copyOf(importance, size);
+            for (int end = size - 1; end > 0; end--) {
+                swap(words, values, 0, end);
+                for (int i = 0, smallest; (smallest = smallestOf(values, i, end)) != i; i = smallest) {
+                    swap(words, values, i, smallest);
+                }
             }
-            return result;
+
+            return Arrays.copyOf(words, Math.max(Math.min(k, size), 0)); // No words for k <= 0
+        }
+
+        // Check if a word with the given importance can no longer enter the heap
+        public boolean rejects(int wordImportance) {
+            return wordImportance <= 0 || (size == capacity && (size == 0 || wordImportance <= importance[0]));
         }
 
         // Check if a word already exists in the heap
-        private boolean contains(String word) {
-            for (int i = 0; i < size; i++) {
-                if (heap[i].equals(word)) {
-                    return true; // Return true if the word is found
+        public boolean contains(String word) {
+            return positions.containsKey(word);
+        }
+    }
+
+    // Ranked results of recent (word, k) queries, dropping the least recently used one when full. Each
+    // result remembers the importance epoch it was computed in and is only served in that epoch, so
+    // a change of importance invalidates all results at once without finding the ones it affects
+    private static class QueryCache {
+        private final LinkedHashMap<QueryKey, CachedResult> results;
+        private long hits;
+        private long misses;
+        private long evictions;
+        private long invalidations; // Results found computed in an earlier epoch
+
+        private QueryCache(int capacity) {
+            // Access order makes the eldest entry the least recently used one
+            this.results = new LinkedHashMap<QueryKey, CachedResult>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<QueryKey, CachedResult> eldest) {
+                    if (size() > capacity) {
+                        evictions++;
+                        return true;
+                    }
+                    return false;
                 }
+            };
+        }
+
+        // Gets the result of a query computed in the given epoch, or null
+        private synchronized String[] get(QueryKey key, long epoch) {
+            CachedResult result = results.get(key);
+            if (result != null && result.epoch != epoch) {
+                results.remove(key); // Importance changed since, so the ranking may have too
+                invalidations++;
+                result = null;
+            }
+            if (result == null) {
+                misses++;
+                return null;
             }
-            return false; // Return false if the word is not in the heap
+            hits++;
+            return result.words;
+        }
+
+        private synchronized void put(QueryKey key, String[] words, long epoch) {
+            results.put(key, new CachedResult(words, epoch));
+        }
+
+        private synchronized QueryCacheStats stats() {
+            return new QueryCacheStats(hits, misses, evictions, invalidations, results.size());
+        }
+    }
+
+    private static class QueryKey {
+        private final String word;
+        private final int k;
+
+        private QueryKey(String word, int k) {
+            this.word = word;
+            this.k = k;
+        }
+
+        public boolean equals(Object other) {
+            return other instanceof QueryKey && ((QueryKey) other).word.equals(word) && ((QueryKey) other).k == k;
+        }
+
+        public int hashCode() {
+            return word.hashCode() * 31 + k;
+        }
+    }
+
+    private static class CachedResult {
+        private final String[] words; // Ranked, never handed out without copying
+        private final long epoch;
+
+        private CachedResult(String[] words, long epoch) {
+            this.words = words;
+            this.epoch = epoch;
+        }
+    }
+
+    // Counters of the query cache since it was enabled, for sizing it to a workload
+    public static class QueryCacheStats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long invalidations;
+        private final int size;
+
+        public QueryCacheStats(long hits, long misses, long evictions, long invalidations, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+            this.size = size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        // Lookups that had to run the query, including those that found an invalidated result
+        public long getMisses() {
+            return misses;
+        }
+
+        // Results dropped to make room for newer ones
+        public long getEvictions() {
+            return evictions;
+        }
+
+        // Results dropped because importance changed after they were computed
+        public long getInvalidations() {
+            return invalidations;
+        }
+
+        // Number of results held
+        public int getSize() {
+            return size;
+        }
+
+        // Fraction of lookups answered from the cache, or 0 before the first lookup
+        public double getHitRate() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+
+        public String toString() {
+            return String.format("%d hits, %d misses (%.1f%% hit rate), %d evictions, %d invalidations, %d cached",
+                    hits, misses, 100 * getHitRate(), evictions, invalidations, size);
         }
     }
 
     // Inserts a word into the Trie recursively
     public void insertRecursively(String word, int index) {
-        insertRecursively(word.toLowerCase(), index, root); // Start from the root of the Trie
+        lockForWriting();
+        try {
+            insertRecursively(word.toLowerCase(), index, root); // Start from the root of the Trie
+        } finally {
+            unlockForWriting();
+        }
     }
 
     // Helper method to perform recursive insertion
     private void insertRecursively(String word, int index, TrieNode node) {
         if (index == word.length()) { // Base case: reached the end of the word
+            raiseLongestWord(word.length());
             node.wordLength = word.length(); // Mark the node as a complete word
             return;
         }
 
         char c = word.charAt(index); // Get the current character
-        TrieNode child = node.children.search(c); // Search for the child node corresponding to the character
+        TrieNode child = node.getChild(c); // Search for the child node corresponding to the character
         if (child == null) { // If the child does not exist
             child = new TrieNode(); // Create a new TrieNode
-            node.children.insert(c, child); // Insert the child into the current node's children
+            addChild(node, c, child); // Insert the child into the current node's children
         }
 
         insertRecursively(word, index + 1, child); // Recur for the next character
     }
 
-    // Loads a file and inserts all words into the Trie
-    public void loadFile(String filePath) {
-        File file = new File(filePath);
+    // Inserts an already lowercased word held in the first `length` characters of an array
+    public void insert(char[] word, int length) {
+        insert(root, word, 0, length, length);
+    }
+
+    // Inserts the characters chars[from..to) below a node, marking the last node with the given word length
+    private void insert(TrieNode node, char[] chars, int from, int to, int wordLength) {
+        lockForWriting();
+        try {
+            insert(node, chars, from, to, wordLength, false);
+        } finally {
+            unlockForWriting();
+        }
+    }
 
-        try (Scanner scanner = new Scanner(file)) { // Open the file for reading
-            while (scanner.hasNextLine()) { // Read each line
-                String word = scanner.nextLine().trim().toLowerCase(); // Normalize the word
-                if (!word.isEmpty()) { // Skip empty lines
-                    insertRecursively(word, 0); // Insert the word into the Trie
+    // Inserts like insert above without taking the lock. A detached node is not yet reachable from the
+    // root, so no reader can see its containers and they are changed in place even in concurrent mode
+    private void insert(TrieNode node, char[] chars, int from, int to, int wordLength, boolean detached) {
+        for (int index = from; index < to; index++) {
+            TrieNode child = node.getChild(chars[index]); // Search for the child node corresponding to the character
+            if (child == null) {
+                child = new TrieNode();
+                if (detached) {
+                    node.addChild(chars[index], child);
+                } else {
+                    addChild(node, chars[index], child);
                 }
             }
-        } catch (FileNotFoundException e) {
+            node = child;
+        }
+        raiseLongestWord(wordLength);
+        node.wordLength = wordLength; // Mark the node as a complete word
+    }
+
+    // Raises the bound on word length to at least the given length, before a word of it is marked
+    private void raiseLongestWord(int length) {
+        if (length > longestWord.get()) { // Only atomic for the rare longer word
+            longestWord.accumulateAndGet(length, Math::max);
+        }
+    }
+
+    // Adds a child to a node, without changing a container that readers may be using in concurrent mode
+    private void addChild(TrieNode node, char key, TrieNode child) {
+        if (concurrent) {
+            node.publishChild(key, child);
+        } else {
+            node.addChild(key, child);
+        }
+    }
+
+    // In concurrent mode, lets one inserting thread at a time change the Trie. Readers never lock
+    private void lockForWriting() {
+        if (concurrent) {
+            writeLock.lock();
+        }
+    }
+
+    private void unlockForWriting() {
+        if (concurrent) {
+            writeLock.unlock();
+        }
+    }
+
+    // Loads a file like loadFile, but builds the subtree under each first character on its own
+    // ForkJoinPool worker. A first character the root does not have yet gets a detached subtree, which
+    // its worker builds without locking or copying and which is attached once it is complete. Words
+    // under a first character the root already has go through the locked insert, so in concurrent mode
+    // those workers take turns
+    public void loadFileParallel(String filePath, int parallelism) {
+        if (parallelism <= 0) {
+            System.out.println("Error: Invalid parallelism - " + parallelism);
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            Map<Character, DictionaryReader.Shard> shards = DictionaryReader.readShards(filePath);
+
+            Map<Character, TrieNode> detached = new HashMap<>(); // Subtrees to attach after their workers finish
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (Map.Entry<Character, DictionaryReader.Shard> entry : shards.entrySet()) {
+                TrieNode subtree = root.getChild(entry.getKey());
+                boolean isDetached = subtree == null;
+                if (isDetached) {
+                    subtree = new TrieNode();
+                    detached.put(entry.getKey(), subtree);
+                }
+                TrieNode shardRoot = subtree;
+                tasks.add(pool.submit(() -> insertShard(shardRoot, entry.getValue(), isDetached)));
+            }
+
+            for (ForkJoinTask<?> task : tasks) {
+                task.join(); // Joining also makes the workers' nodes visible to this thread
+            }
+
+            for (Map.Entry<Character, TrieNode> entry : detached.entrySet()) {
+                char key = entry.getKey();
+                TrieNode existing;
+                lockForWriting();
+                try {
+                    existing = root.getChild(key);
+                    if (existing == null) {
+                        addChild(root, key, entry.getValue()); // Publishes the complete subtree at once
+                    }
+                } finally {
+                    unlockForWriting();
+                }
+                if (existing != null) { // Another thread inserted a word with this first character meanwhile
+                    insertShard(existing, shards.get(key), false);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            System.out.println("Error: File not found - " + filePath);
+        } catch (Exception e) {
+            System.out.println("Error processing file: " + e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Builds the Trie from a dictionary file in one pass over its words in ascending order. Each word
+    // only walks the nodes it does not share with the previous one, and every node gets its children
+    // in a container of the final size. An unsorted file is sorted once first. The Trie must be empty
+    public void buildFromSorted(String filePath) {
+        if (root.childCount() > 0 || root.wordLength > 0) {
+            throw new IllegalStateException("buildFromSorted needs an empty Trie");
+        }
+
+        try {
+            SortedBuilder builder = new SortedBuilder();
+            try {
+                DictionaryReader.readWords(filePath, builder::add);
+            } catch (IllegalArgumentException e) {
+                // The file is not sorted, so sort its words and start again
+                List<String> words = new ArrayList<>();
+                DictionaryReader.readWords(filePath, (word, length) -> words.add(new String(word, 0, length)));
+                Collections.sort(words);
+
+                builder = new SortedBuilder();
+                for (String word : words) {
+                    builder.add(word.toCharArray(), word.length());
+                }
+            }
+            raiseLongestWord(builder.longestWord);
+            root = builder.finish(); // The Trie only changes once the whole build has succeeded
+        } catch (NoSuchFileException e) {
+            System.out.println("Error: File not found - " + filePath);
+        } catch (Exception e) {
+            System.out.println("Error processing file: " + e.getMessage());
+        }
+    }
+
+    // Builds a Trie from words given in ascending order. The nodes on the path of the previous word
+    // collect their children in pending lists; once a word leaves that path at some depth, the deeper
+    // nodes can get no more children, so their lists are turned into containers
+    private static class SortedBuilder {
+        private final TrieNode root = new TrieNode();
+        private TrieNode[] path = new TrieNode[32]; // Node of each prefix of the previous word, by length
+        private char[] previous = new char[32]; // The previous word
+        private int previousLength;
+        private int longestWord; // Length of the longest word added
+        private char[][] pendingKeys = new char[32][]; // Keys of the children of each node on the path
+        private TrieNode[][] pendingNodes = new TrieNode[32][]; // Children of each node on the path
+        private int[] pendingCount = new int[32]; // Number of pending children of each node on the path
+
+        SortedBuilder() {
+            path[0] = root;
+        }
+
+        // Adds the next word, which must not come before the previous one
+        void add(char[] word, int length) {
+            int common = 0; // Length of the prefix shared with the previous word
+            while (common < length && common < previousLength && word[common] == previous[common]) {
+                common++;
+            }
+            if (common < previousLength && (common == length || word[common] < previous[common])) {
+                throw new IllegalArgumentException("Words are not sorted: " + new String(word, 0, length)
+                        + " comes after " + new String(previous, 0, previousLength));
+            }
+
+            ensureDepth(length);
+            for (int depth = previousLength; depth > common; depth--) {
+                finishNode(depth); // Left the previous word's path below the shared prefix
+            }
+            for (int depth = common; depth < length; depth++) {
+                TrieNode child = new TrieNode();
+                addChild(depth, word[depth], child);
+                path[depth + 1] = child;
+            }
+            path[length].wordLength = length; // Mark the node as a complete word
+            longestWord = Math.max(longestWord, length);
+
+            System.arraycopy(word, 0, previous, 0, length);
+            previousLength = length;
+        }
+
+        // Gives the remaining nodes on the path their children and returns the root
+        TrieNode finish() {
+            for (int depth = previousLength; depth >= 0; depth--) {
+                finishNode(depth);
+            }
+            return root;
+        }
+
+        // Moves the pending children of the node at a depth of the path into its container
+        private void finishNode(int depth) {
+            if (pendingCount[depth] > 0) {
+                path[depth].setChildren(pendingKeys[depth], pendingNodes[depth], pendingCount[depth]);
+                pendingCount[depth] = 0;
+            }
+        }
+
+        // Records a new child of the node at a depth of the path. The first child goes inline at once,
+        // since most nodes never get a second one; only nodes that branch use the pending lists
+        private void addChild(int depth, char key, TrieNode child) {
+            TrieNode node = path[depth];
+            if (node.edgeChild == null && pendingCount[depth] == 0) {
+                node.edgeKey = key;
+                node.edgeChild = child;
+                return;
+            }
+
+            if (node.edgeChild != null) {
+                addPending(depth, node.edgeKey, node.edgeChild); // The inline child becomes pending too
+                node.edgeChild = null;
+            }
+            addPending(depth, key, child);
+        }
+
+        private void addPending(int depth, char key, TrieNode child) {
+            if (pendingKeys[depth] == null) {
+                pendingKeys[depth] = new char[4];
+                pendingNodes[depth] = new TrieNode[4];
+            } else if (pendingCount[depth] == pendingKeys[depth].length) {
+                pendingKeys[depth] = Arrays.copyOf(pendingKeys[depth], pendingCount[depth] * 2);
+                pendingNodes[depth] = Arrays.copyOf(pendingNodes[depth], pendingCount[depth] * 2);
+            }
+            pendingKeys[depth][pendingCount[depth]] = key;
+            pendingNodes[depth][pendingCount[depth]] = child;
+            pendingCount[depth]++;
+        }
+
+        // Grows the per-depth arrays so that a word of the given length fits
+        private void ensureDepth(int length) {
+            if (length < path.length) {
+                return;
+            }
+            int newLength = Math.max(length + 1, path.length * 2);
+            path = Arrays.copyOf(path, newLength);
+            previous = Arrays.copyOf(previous, newLength);
+            pendingKeys = Arrays.copyOf(pendingKeys, newLength);
+            pendingNodes = Arrays.copyOf(pendingNodes, newLength);
+            pendingCount = Arrays.copyOf(pendingCount, newLength);
+        }
+    }
+
+    // Inserts the words of a shard into the subtree of their shared first character, without locking
+    // if the subtree is detached from the root
+    private void insertShard(TrieNode subtree, DictionaryReader.Shard shard, boolean detached) {
+        char[] chars = shard.chars();
+        for (int i = 0; i < shard.size(); i++) {
+            int start = shard.start(i);
+            int end = shard.end(i);
+            if (detached) {
+                insert(subtree, chars, start + 1, end, end - start, true); // The subtree is the first character
+            } else {
+                insert(subtree, chars, start + 1, end, end - start);
+            }
+        }
+    }
+
+    // Loads a file and inserts all words into the Trie
+    public void loadFile(String filePath) {
+        try {
+            DictionaryReader.readWords(filePath, this::insert); // Insert each trimmed, lowercased line
+        } catch (NoSuchFileException e) {
             System.out.println("Error: File not found - " + filePath);
         } catch (Exception e) {
             System.out.println("Error processing file: " + e.getMessage());
@@ -320,93 +1537,405 @@ public class TrieApp {
 
     // Finds the top k words matching the given word using a MinHeap
     public MinHeap findTopKWords(String word, int k) {
+        if (k <= 0) {
+            return new MinHeap(0); // Nothing to collect
+        }
+
+        return readConsistently(() -> collectTopKWords(word, k));
+    }
+
+    // Finds the top k words matching each of the given words, like findTopKWords for each of them, in
+    // one walk of the Trie. The results are in the order of the words, each in descending order of
+    // importance
+    public List<String[]> findTopKWordsBatch(List<String> words, int k) {
+        String[] targetWords = distinctSorted(words);
+        MinHeap[] heaps = readConsistently(() -> collectTopKWordsBatch(targetWords, k));
+        return batchResults(words, targetWords, heaps, k);
+    }
+
+    // Finds the top k words matching each of the given words like findTopKWordsBatch, splitting the
+    // words among the threads of a pool. Each thread walks the Trie for a range of the sorted words,
+    // so words with a common prefix share the walk of the subtree they start
+    public List<String[]> findTopKWordsBatch(List<String> words, int k, ForkJoinPool pool) {
+        String[] targetWords = distinctSorted(words);
+        int parts = Math.min(pool.getParallelism(), targetWords.length);
+        List<ForkJoinTask<MinHeap[]>> tasks = new ArrayList<>();
+        for (int part = 0; part < parts; part++) {
+            String[] range = Arrays.copyOfRange(targetWords, (int) ((long) targetWords.length * part / parts),
+                    (int) ((long) targetWords.length * (part + 1) / parts));
+            tasks.add(pool.submit(() -> readConsistently(() -> collectTopKWordsBatch(range, k))));
+        }
+
+        MinHeap[] heaps = new MinHeap[targetWords.length];
+        int filled = 0;
+        for (ForkJoinTask<MinHeap[]> task : tasks) {
+            MinHeap[] part = task.join();
+            System.arraycopy(part, 0, heaps, filled, part.length);
+            filled += part.length;
+        }
+        return batchResults(words, targetWords, heaps, k);
+    }
+
+    // Sorts the words and drops repeated ones, so each is walked for once and neighbours share prefixes
+    private static String[] distinctSorted(List<String> words) {
+        String[] sorted = words.toArray(new String[0]);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || !sorted[i].equals(sorted[distinct - 1])) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, distinct);
+    }
+
+    private MinHeap[] collectTopKWordsBatch(String[] targetWords, int k) {
+        MinHeap[] heaps = new MinHeap[targetWords.length];
+        for (int i = 0; i < heaps.length; i++) {
+            heaps[i] = new MinHeap(Math.max(k, 0));
+        }
+        if (targetWords.length > 0 && k > 0) {
+            TrieTraversal<TrieNode> traversal = new TrieTraversal<>(new ChildLister(true));
+            traversal.walk(root, "", new BatchCollector(traversal, targetWords, heaps));
+        }
+        return heaps;
+    }
+
+    // Gets the result of each word, in the order of the words, from the heaps of the sorted words
+    private static List<String[]> batchResults(List<String> words, String[] targetWords, MinHeap[] heaps, int k) {
+        List<String[]> results = new ArrayList<>(words.size());
+        for (String word : words) {
+            results.add(k <= 0 ? new String[0] : heaps[Arrays.binarySearch(targetWords, word)].getTopKWords(k));
+        }
+        return results;
+    }
+
+    // Finds the top k words matching the given word like findTopKWords, in descending order of
+    // importance. With the query cache enabled, a query repeated before any change of importance is
+    // answered without walking the Trie
+    public String[] queryTopKWords(String word, int k) {
+        if (k <= 0) {
+            return new String[0]; // Nothing to collect
+        }
+
+        QueryCache cache = queryCache;
+        if (cache == null) {
+            return findTopKWords(word, k).getTopKWords(k);
+        }
+
+        // Read the epoch first: a result computed while importance changes is stored under the old
+        // epoch, which the change then leaves behind
+        long epoch = importanceEpoch.get();
+        QueryKey key = new QueryKey(word, k);
+        String[] words = cache.get(key, epoch);
+        if (words == null) {
+            words = findTopKWords(word, k).getTopKWords(k);
+            cache.put(key, words, epoch);
+        }
+        return words.clone(); // Callers may change their copy
+    }
+
+    // Turns on the query cache, keeping the results of the `capacity` most recently used queries
+    public void enableQueryCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Query cache capacity must be positive: " + capacity);
+        }
+        queryCache = new QueryCache(capacity); // Start from an empty cache and zero counters
+    }
+
+    // Turns off the query cache and releases its memory
+    public void disableQueryCache() {
+        queryCache = null;
+    }
+
+    // Gets the counters of the query cache, or null when it is disabled
+    public QueryCacheStats getQueryCacheStats() {
+        QueryCache cache = queryCache;
+        return cache == null ? null : cache.stats();
+    }
+
+    private MinHeap collectTopKWords(String word, int k) {
         MinHeap heap = new MinHeap(k); // Initialize a MinHeap to store the top k words
 
-        collectWordsByPrefix(root, "", word, heap); // Collect words with the given prefix
-        collectWordsByExactLength(root, "", word.length(), heap); // Collect words of the same length
-        collectWordsByApproximateLength(root, "", word, heap); // Collect words of approximate length
+        // A single walk tests the prefix, exact length and approximate length rules together
+        TrieTraversal<TrieNode> traversal = new TrieTraversal<>(new ChildLister(true));
+        traversal.walk(root, "", new MatchingWordsCollector(traversal, word, heap));
 
         return heap; // Return the heap containing the top k words
     }
 
-    // Collects words starting with a specific prefix
-    private void collectWordsByPrefix(TrieNode node, String currentWord, String searchPrefix, MinHeap heap) {
-        if (node == null)
-            return; // Base case: null node
+    // Finds the top k words whose characters are similar to those of the given word and whose length
+    // is at most 1 shorter or 2 longer, the similarity rule of findTopKWords on its own
+    public MinHeap findSimilarWords(String word, int k) {
+        if (k <= 0) {
+            return new MinHeap(0); // Nothing to collect
+        }
+
+        String targetWord = word.toLowerCase(); // Normalize the word like the stored words
+        return readConsistently(() -> {
+            MinHeap heap = new MinHeap(k);
+            TrieTraversal<TrieNode> traversal = new TrieTraversal<>(new ChildLister(false));
+            traversal.walk(root, "", new SimilarWordsCollector(targetWord, heap));
+            return heap;
+        });
+    }
 
-        // If the current word starts with the prefix and is a valid word, add it to the
-        // heap
-        if (currentWord.startsWith(searchPrefix) && node.wordLength > 0 && node.importance > 0) {
-            heap.insert(currentWord, node.importance);
+    // Finds the top k words within an edit distance of the given word: the words that at most
+    // maxDistance insertions, deletions or substitutions of one character turn into it
+    public MinHeap findFuzzyWords(String word, int maxDistance, int k) {
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("Negative edit distance: " + maxDistance);
+        }
+        if (k <= 0) {
+            return new MinHeap(0); // Nothing to collect
         }
 
-        // Traverse all child nodes to explore more words
-        for (char c = 'a'; c <= 'z'; c++) {
-            TrieNode child = node.children.search(c);
-            if (child != null) {
-                collectWordsByPrefix(child, currentWord + c, searchPrefix, heap); // Recur for the child node
-            }
+        String targetWord = word.toLowerCase(); // Normalize the word like the stored words
+        // No word is further away than the longer of it and the target, so larger distances find the
+        // same words and would only make the distance rows larger
+        int distance = Math.min(maxDistance, Math.max(targetWord.length(), longestWord.get()));
+        return readConsistently(() -> {
+            MinHeap heap = new MinHeap(k);
+            TrieTraversal<TrieNode> traversal = new TrieTraversal<>(new ChildLister(true));
+            traversal.walk(root, "", new FuzzyWordsCollector(traversal, targetWord, distance, heap));
+            return heap;
+        });
+    }
+
+    // Finds the top k words starting with the given prefix, in descending order of importance
+    public String[] completePrefix(String prefix, int k) {
+        if (k <= 0) {
+            return new String[0]; // Nothing to collect
         }
+
+        String normalizedPrefix = prefix.toLowerCase(); // Normalize the prefix like the stored words
+        return readConsistently(() -> collectCompletions(normalizedPrefix, k));
     }
 
-    // Collects words with an exact length
-    private void collectWordsByExactLength(TrieNode node, String currentWord, int targetLength, MinHeap heap) {
-        if (node == null)
-            return; // Base case: null node
+    private String[] collectCompletions(String prefix, int k) {
+        if (k <= completionCacheSize) {
+            return copyCompletions(searchNode(prefix, root, 0), k); // Answer from the completion cache
+        }
+
+        MinHeap heap = new MinHeap(k); // Initialize a MinHeap to store the top k words
+
+        // Descend to the prefix node first so that only its subtree is enumerated
+        collectWordsByPrefix(searchNode(prefix, root, 0), prefix, heap);
 
-        // Add words matching the target length to the heap
-        if (node.wordLength > 0 && currentWord.length() == targetLength && node.importance > 0) {
-            heap.insert(currentWord, node.importance);
+        return heap.getTopKWords(k);
+    }
+
+    // Runs a query so that it sees each fold of counted uses either completely or not at all. In
+    // concurrent mode it first runs without locking, and only runs again under the read lock if a
+    // fold started or ended in the meantime
+    private <T> T readConsistently(Supplier<T> query) {
+        if (!concurrent) {
+            return query.get();
         }
 
-        // Recur for all child nodes
-        for (char c = 'a'; c <= 'z'; c++) {
-            TrieNode child = node.children.search(c);
-            if (child != null) {
-                collectWordsByExactLength(child, currentWord + c, targetLength, heap);
-            }
+        long stamp = foldLock.tryOptimisticRead(); // 0 while a fold is running, which never validates
+        T result = query.get();
+        if (foldLock.validate(stamp)) {
+            return result;
+        }
+
+        stamp = foldLock.readLock(); // Wait for the fold to finish and keep the next one out
+        try {
+            return query.get();
+        } finally {
+            foldLock.unlockRead(stamp);
         }
     }
 
-    // Collects words with lengths approximately matching the target word
-    private void collectWordsByApproximateLength(TrieNode node, String currentWord, String targetWord, MinHeap heap) {
-        if (node == null)
-            return; // Base case: null node
+    // Copies the k best cached completions of a node, in descending order of importance
+    private String[] copyCompletions(TrieNode node, int k) {
+        if (node == null || node.topWords == null) {
+            return new String[0]; // The prefix is not in the Trie or has no important words
+        }
+
+        return Arrays.copyOf(node.topWords, Math.min(k, node.topWords.length));
+    }
+
+    // Turns on the completion cache, keeping the `size` best completions at every node
+    public void enableCompletionCache(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Completion cache size must be positive: " + size);
+        }
+        if (concurrent) {
+            // The cached arrays are updated in place, so readers could see them half-updated
+            throw new IllegalStateException("The completion cache is not supported in concurrent mode");
+        }
+        disableCompletionCache(); // Start from empty caches
+        completionCacheSize = size;
+        buildCompletionCache();
+    }
+
+    // Turns off the completion cache and releases its memory
+    public void disableCompletionCache() {
+        completionCacheSize = 0;
+        clearCompletionCache();
+    }
 
-        // Calculate the length difference
-        int lengthDifference = currentWord.length() - targetWord.length();
+    // Fills the completion caches of all nodes from the bottom up
+    private void buildCompletionCache() {
+        ChildLister lister = new ChildLister(false);
+        new TrieTraversal<>(lister).walk(root, "", new TrieTraversal.Visitor<TrieNode>() {
+            public boolean enter(TrieNode node, CharSequence path) {
+                if (node.wordLength > 0 && node.importance > 0) {
+                    updateCompletionCache(node, path.toString(), node.importance); // The word ending here
+                }
+                return true;
+            }
 
-        // Include words with lengths within the allowed range and similar character
-        // patterns
-        if (node.wordLength > 0 && node.importance > 0 &&
-                (lengthDifference >= -1 && lengthDifference <= 2) &&
-                areCharactersSimilar(currentWord, targetWord)) {
-            heap.insert(currentWord, node.importance);
+            // The children's caches are complete by now, so merge their best completions into this node
+            public void leave(TrieNode node, CharSequence path) {
+                int count = lister.list(node);
+                for (int i = 0; i < count; i++) {
+                    TrieNode child = lister.nodes[i];
+                    if (child.topWords != null) {
+                        for (int j = 0; j < child.topWords.length; j++) {
+                            updateCompletionCache(node, child.topWords[j], child.topImportance[j]);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    // Removes the completion caches of all nodes
+    private void clearCompletionCache() {
+        new TrieTraversal<>(new ChildLister(false)).walk(root, "", (node, path) -> {
+            node.topWords = null;
+            node.topImportance = null;
+            return true;
+        });
+    }
+
+    // Records a new importance for a word in a node's completion cache. Importance only grows,
+    // so a word that falls out of the cache can never belong to it again
+    private void updateCompletionCache(TrieNode node, String word, int wordImportance) {
+        int count = node.topWords == null ? 0 : node.topWords.length;
+
+        // Look for the word among the cached completions
+        int position = -1;
+        for (int i = 0; i < count; i++) {
+            if (node.topWords[i].equals(word)) {
+                position = i;
+                break;
+            }
         }
 
-        // Recur for all child nodes
-        for (char c = 'a'; c <= 'z'; c++) {
-            TrieNode child = node.children.search(c);
-            if (child != null) {
-                collectWordsByApproximateLength(child, currentWord + c, targetWord, heap);
+        if (position < 0) {
+            if (count == completionCacheSize) {
+                if (wordImportance <= node.topImportance[count - 1]) {
+                    return; // Not important enough to enter a full cache
+                }
+                position = count - 1; // Replace the least important completion
+            } else {
+                // Grow the arrays by one, since most nodes never fill their cache
+                node.topWords = count == 0 ? new String[1] : Arrays.copyOf(node.topWords, count + 1);
+                node.topImportance = count == 0 ? new int[1] : Arrays.copyOf(node.topImportance, count + 1);
+                position = count;
             }
+            node.topWords[position] = word;
+        }
+        node.topImportance[position] = wordImportance;
+
+        // Move the completion up until the arrays are sorted by descending importance again
+        while (position > 0 && node.topImportance[position - 1] < node.topImportance[position]) {
+            String tempWord = node.topWords[position - 1];
+            node.topWords[position - 1] = node.topWords[position];
+            node.topWords[position] = tempWord;
+
+            int tempImportance = node.topImportance[position - 1];
+            node.topImportance[position - 1] = node.topImportance[position];
+            node.topImportance[position] = tempImportance;
+
+            position--;
         }
     }
 
+    // Collects every word in the subtree of the prefix node, whose path is the prefix
+    private void collectWordsByPrefix(TrieNode node, String prefix, MinHeap heap) {
+        if (node == null)
+            return; // Base case: the prefix is not in the Trie
+
+        // Visit the most important subtrees first. Every word below the prefix node starts with the
+        // prefix, so no filtering is needed
+        TrieTraversal<TrieNode> traversal = new TrieTraversal<>(new ChildLister(true));
+        traversal.walk(node, prefix, (child, path) -> {
+            if (heap.rejects(child.maxImportance)) {
+                traversal.skipSiblings(); // Nor can any word in a later, less important sibling's
+                return false; // No word in this subtree can enter the heap
+            }
+            if (child.wordLength > 0 && child.importance > 0) {
+                heap.insert(path.toString(), child.importance);
+            }
+            return true;
+        });
+    }
+
+    // Gets the children of a node sorted by descending subtree importance, returning their count
+    private static int getChildrenByImportance(TrieNode node, char[] keys, TrieNode[] children) {
+        int count = node.getChildren(keys, children); // -1 if the arrays are too small, which sorts nothing
+
+        // Insertion sort, since a node has at most a few dozen children
+        for (int i = 1; i < count; i++) {
+            char key = keys[i];
+            TrieNode child = children[i];
+            int j = i - 1;
+            while (j >= 0 && children[j].maxImportance < child.maxImportance) {
+                keys[j + 1] = keys[j];
+                children[j + 1] = children[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            children[j + 1] = child;
+        }
+
+        return count;
+    }
+
+    // Whether the word at a path matches the target by one of the rules of findTopKWords: the path
+    // starts with the target, has its length, or is at most one shorter or two longer and has similar
+    // characters. Every trie's findTopKWords tests words with this. Few words reach the similarity
+    // test, so the target's histogram only follows the walk to them; words tested one after another
+    // usually share most of their path
+    static boolean matchesTopKRules(CharSequence path, String targetWord, boolean inPrefix,
+            LetterHistogram histogram) {
+        int lengthDifference = path.length() - targetWord.length();
+        if (inPrefix || lengthDifference == 0) {
+            return true;
+        }
+        if (lengthDifference < -1 || lengthDifference > 2) {
+            return false;
+        }
+        histogram.moveTo(path);
+        return histogram.isSimilar();
+    }
+
+    // Whether a findTopKWords walk can find matches below a path. Once the path is two characters
+    // longer than the target, the length rules cannot match, so only the prefix subtree is left
+    static boolean canMatchBelow(CharSequence path, String targetWord, boolean inPrefix) {
+        return path.length() - targetWord.length() < 2 || inPrefix;
+    }
+
     // Determines whether two words have similar character distributions
-    private boolean areCharactersSimilar(String word1, String word2) {
+    static boolean areCharactersSimilar(CharSequence word1, String word2) {
         int[] freq1 = new int[30]; // Frequency array for word1
         int[] freq2 = new int[30]; // Frequency array for word2
 
         // Count character frequencies for word1
-        for (char c : word1.toCharArray()) {
+        for (int i = 0; i < word1.length(); i++) {
+            char c = word1.charAt(i);
             if (c - 'a' < 30 && c - 'a' >= 0) { // Ensure within valid range
                 freq1[c - 'a']++;
             }
         }
 
         // Count character frequencies for word2
-        for (char c : word2.toCharArray()) {
+        for (int i = 0; i < word2.length(); i++) {
+            char c = word2.charAt(i);
             if (c - 'a' < 30 && c - 'a' >= 0) { // Ensure within valid range
                 freq2[c - 'a']++;
             }
@@ -425,70 +1954,363 @@ public class TrieApp {
         return similarityRatio >= 0.7;
     }
 
-    // Updates the importance of words in the Trie based on a given file
+    // Updates the importance of words in the Trie based on a given file. The file is only read
     public void importanceUpdate(File wordsFile) {
+        try (Reader reader = new FileReader(wordsFile)) {
+            importanceUpdate(reader);
+        } catch (FileNotFoundException e) {
+            System.out.println("Error: File not found - " + wordsFile.getName());
+        } catch (Exception e) {
+            System.out.println("Error processing file: " + e.getMessage());
+        }
+    }
+
+    // Updates the importance of words from a usage log of any size, in a single pass that keeps only
+    // the current word in memory. Each whitespace-separated word goes through processWord and counts
+    // if it is in the Trie. A word longer than MAX_TOKEN_LENGTH is skipped, so a log without
+    // separators cannot make the word buffer grow without bound. In concurrent mode the uses go to
+    // this thread's counts, which are folded every USES_PER_FOLD uses so that they stay small too
+    public void importanceUpdate(Reader reader) throws IOException {
+        char[] buffer = new char[8192];
+        char[] token = new char[64]; // Characters of the word being read, grown for long words
+        int length = 0;
+        boolean overlong = false; // Whether the word being read is too long to count
+        int recorded = 0; // Uses counted in this thread's map since the last fold
+        int read;
         try {
-            // Read the entire content of the file
-            Scanner scanner = new Scanner(wordsFile);
-            StringBuilder content = new StringBuilder();
+            while ((read = reader.read(buffer)) >= 0) {
+                for (int i = 0; i < read; i++) {
+                    char c = buffer[i];
+                    if (isSeparator(c)) {
+                        if (length > 0 && !overlong && countWord(token, length) && ++recorded == USES_PER_FOLD) {
+                            foldImportance();
+                            recorded = 0;
+                        }
+                        length = 0;
+                        overlong = false;
+                    } else if (length == MAX_TOKEN_LENGTH) {
+                        overlong = true; // Skip the rest of it
+                    } else {
+                        if (length == token.length) {
+                            token = Arrays.copyOf(token, Math.min(length * 2, MAX_TOKEN_LENGTH));
+                        }
+                        token[length++] = c;
+                    }
+                }
+            }
+            if (length > 0 && !overlong) {
+                countWord(token, length); // The log may not end with a separator
+            }
+        } finally {
+            if (!concurrent) {
+                importanceEpoch.incrementAndGet(); // Counted words changed the Trie, even if reading failed
+            }
+        }
+
+        if (concurrent) {
+            foldImportance(); // The log's uses are in the Trie when this returns, as in the other mode
+        }
+    }
+
+    // Whitespace as the regex \s matches it, plus the Unicode line breaks that Scanner.nextLine
+    // splits on, so words are split exactly where reading by lines and splitting used to split them
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r'
+                || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    // Processes the word in token[0..length) and counts it. The processed word is the only String made.
+    // Returns whether the use was recorded for a later fold, which only happens in concurrent mode
+    private boolean countWord(char[] token, int length) {
+        char[] chars = token;
+        if (!toLowerCaseAscii(chars, length)) {
+            chars = new String(token, 0, length).toLowerCase().toCharArray(); // May change the length
+            length = chars.length;
+        }
 
-            // Append each line from the file to a single string
-            while (scanner.hasNextLine()) {
-                content.append(scanner.nextLine()).append(" "); // Add a space to separate lines
+        int end = keptLength(chars, length); // Process each word based on specific rules
+        int start = 0;
+        while (start < end && chars[start] <= ' ') {
+            start++; // Trim the leading control characters that survive processWord
+        }
+        if (start < end) {
+            String word = new String(chars, start, end - start);
+            if (!concurrent) {
+                incrementImportance(word, root, 0, 1); // Increment importance if the word exists in the Trie
+            } else if (searchRecursively(word)) { // The fold would drop other words, so do not keep them
+                recordUsage(word); // Count in this thread's map instead of the shared nodes
+                return true;
             }
-            scanner.close(); // Close the scanner after reading
+        }
+        return false;
+    }
 
-            // Split the content into individual words
-            String[] words = content.toString().split("\\s+"); // Split by whitespace
+    // Counts one use of a word without touching the Trie: the count goes to a map of the calling
+    // thread, so threads counting the same popular words do not fight over the same nodes. Counted
+    // uses take effect at the next foldImportance, which sums them over all threads first
+    public void recordUsage(String word) {
+        usageCounts.get().add(word.toLowerCase());
+    }
 
-            // Write the processed words back to the file
-            try (PrintWriter writer = new PrintWriter(wordsFile)) {
-                for (String word : words) {
-                    String processedWord = processWord(word); // Process each word based on specific rules
-                    if (processedWord != null && !processedWord.isEmpty()) { // If valid, write to the file
-                        writer.println(processedWord);
-                    }
+    // Adds all counted uses to the importance of their words, as one batch that queries see either
+    // completely or not at all. Words that are not in the Trie are dropped, as in importanceUpdate
+    public void foldImportance() {
+        long stamp = foldLock.writeLock(); // Also keeps two folds from interleaving
+        try {
+            HashMap<String, int[]> totals = new HashMap<>();
+            for (UsageCounts counts : allUsageCounts) {
+                boolean finished = !counts.owner.isAlive(); // Checked first, so no count can follow the drain
+                for (Map.Entry<String, int[]> entry : counts.drain().entrySet()) {
+                    addTotal(totals, entry.getKey(), entry.getValue()[0]);
+                }
+                if (finished) {
+                    allUsageCounts.remove(counts); // Drained for the last time
                 }
             }
 
-            // Update importance values in the Trie for the processed words
-            scanner = new Scanner(wordsFile); // Reopen the file for reading
-            while (scanner.hasNextLine()) {
-                String word = scanner.nextLine().trim().toLowerCase(); // Normalize the word
-                if (!word.isEmpty()) {
-                    TrieNode node = searchNode(word, root, 0); // Search for the word in the Trie
-                    if (node != null && node.wordLength > 0) {
-                        node.importance++; // Increment importance if the word exists in the Trie
-                    }
+            addCounts(totals); // One sorted walk, however often each word was used
+        } finally {
+            foldLock.unlockWrite(stamp);
+        }
+    }
+
+    // Adds a count of uses to the importance of each word, dropping words that are not in the Trie
+    public void bulkImportanceUpdate(Map<String, Integer> counts) {
+        HashMap<String, int[]> totals = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            int count = entry.getValue();
+            if (count < 0) {
+                throw new IllegalArgumentException("Negative count for \"" + entry.getKey() + "\": " + count);
+            }
+            if (count > 0) {
+                addTotal(totals, entry.getKey().toLowerCase(), count); // Keys may differ only in case
+            }
+        }
+        addCountsConsistently(totals);
+    }
+
+    // Adds one to the importance of a word for every time the stream has it, like the Map version
+    // with the number of occurrences as counts
+    public void bulkImportanceUpdate(Stream<String> words) {
+        HashMap<String, int[]> totals = new HashMap<>();
+        words.sequential().forEach(word -> addTotal(totals, word.toLowerCase(), 1));
+        addCountsConsistently(totals);
+    }
+
+    private static void addTotal(HashMap<String, int[]> totals, String word, int count) {
+        int[] total = totals.get(word);
+        if (total == null) {
+            totals.put(word, new int[] { count });
+        } else {
+            total[0] += count;
+        }
+    }
+
+    // Adds the counts as one batch that queries in concurrent mode see completely or not at all
+    private void addCountsConsistently(HashMap<String, int[]> totals) {
+        long stamp = concurrent ? foldLock.writeLock() : 0;
+        try {
+            addCounts(totals);
+        } finally {
+            if (concurrent) {
+                foldLock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    // Adds counts to the importance of their words in a single walk over the words in sorted order.
+    // Consecutive words share the descent along their common prefix, and the subtree maximum of a node
+    // is raised once when the walk leaves it, however many of the words below it changed
+    private void addCounts(HashMap<String, int[]> totals) {
+        String[] words = totals.keySet().toArray(new String[0]);
+        Arrays.sort(words);
+
+        if (completionCacheSize > 0) {
+            // The cache of every node on a word's path needs that word, so update one word at a time
+            for (String word : words) {
+                incrementImportance(word, root, 0, totals.get(word)[0]);
+            }
+            importanceEpoch.incrementAndGet();
+            return;
+        }
+
+        TrieNode[] path = new TrieNode[32]; // Nodes of the previous word's walk; path[d] is at depth d
+        int[] raised = new int[32]; // Highest new importance below each node of the path
+        path[0] = root;
+        int depth = 0; // The walk is at path[depth]
+        String previous = "";
+
+        for (String word : words) {
+            // Climb back to the prefix shared with the previous word, raising maxima on the way
+            int common = 0;
+            while (common < depth && common < word.length() && previous.charAt(common) == word.charAt(common)) {
+                common++;
+            }
+            for (; depth > common; depth--) {
+                path[depth].raiseMaxImportance(raised[depth], concurrent);
+                raised[depth - 1] = Math.max(raised[depth - 1], raised[depth]);
+            }
+
+            if (word.length() >= path.length) {
+                path = Arrays.copyOf(path, word.length() * 2);
+                raised = Arrays.copyOf(raised, word.length() * 2);
+            }
+
+            // Descend along the rest of the word, as far as the Trie has it
+            while (depth < word.length()) {
+                TrieNode child = path[depth].getChild(word.charAt(depth));
+                if (child == null) {
+                    break; // The word is not in the Trie
                 }
+                path[++depth] = child;
+                raised[depth] = 0;
             }
-            scanner.close(); // Close the scanner after updating importance
-        } catch (FileNotFoundException e) {
-            System.out.println("Error: File not found - " + wordsFile.getName());
-        } catch (Exception e) {
-            System.out.println("Error processing file: " + e.getMessage());
+
+            if (depth == word.length() && path[depth].wordLength > 0) {
+                int importance = path[depth].addImportance(totals.get(word)[0], concurrent); // Also raises its own maximum
+                raised[depth] = Math.max(raised[depth], importance);
+            }
+            previous = word;
         }
+
+        for (; depth > 0; depth--) {
+            path[depth].raiseMaxImportance(raised[depth], concurrent);
+            raised[depth - 1] = Math.max(raised[depth - 1], raised[depth]);
+        }
+        root.raiseMaxImportance(raised[0], concurrent);
+        importanceEpoch.incrementAndGet(); // Only after the counts, so no result computed before them survives
+    }
+
+    // Folds counted uses on a schedule, every period, until the returned future is cancelled
+    public ScheduledFuture<?> scheduleImportanceFolding(ScheduledExecutorService scheduler, long period,
+            TimeUnit unit) {
+        return scheduler.scheduleAtFixedRate(this::foldImportance, period, period, unit);
+    }
+
+    private UsageCounts registerUsageCounts() {
+        UsageCounts counts = new UsageCounts(Thread.currentThread());
+        allUsageCounts.add(counts);
+        return counts;
     }
 
     // Processes a word based on specific rules
-    private String processWord(String word) {
-        word = word.toLowerCase(); // Convert the word to lowercase
+    static String processWord(String word) {
+        char[] chars = word.toLowerCase().toCharArray(); // Convert the word to lowercase
+        int length = keptLength(chars, chars.length);
+        return length < 0 ? null : new String(chars, 0, length);
+    }
 
-        if (word.matches(".*[a-zA-Z][^a-zA-Z]+[a-zA-Z].*")) {
-            // Rule 1: Discard words with special characters interspersed with letters
-            return null;
-        } else if (word.matches(".*[^a-zA-Z]+$")) {
-            // Rule 2: Trim trailing special characters (e.g., "BS!!!!" becomes "BS")
-            return word.replaceAll("[^a-zA-Z]+$", "");
-        } else if (word.matches("[a-zA-Z]+")) {
-            // Rule 3: Retain pure alphabetic words
-            return word;
+    // Lowercases chars[0..length) in place, as String.toLowerCase would, if they are all ASCII and the
+    // default locale has no special rules for ASCII letters. Returns false, leaving the rest to
+    // String.toLowerCase, when either is not the case
+    private static boolean toLowerCaseAscii(char[] chars, int length) {
+        if (!hasPlainAsciiLowercase()) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c >= 0x80) {
+                return false;
+            } else if (c >= 'A' && c <= 'Z') {
+                chars[i] = (char) (c + ('a' - 'A'));
+            }
+        }
+        return true;
+    }
+
+    // Whether String.toLowerCase turns the ASCII letters 'A' to 'Z' into 'a' to 'z' in the default
+    // locale. Turkish, Azerbaijani and Lithuanian lowercase 'I' differently
+    static boolean hasPlainAsciiLowercase() {
+        String language = Locale.getDefault().getLanguage();
+        return !(language.equals("tr") || language.equals("az") || language.equals("lt"));
+    }
+
+    // Applies the rules of processWord to lowercased characters in one pass, returning how many
+    // leading characters the processed word keeps, or -1 if it is discarded. The rules used to be
+    // the regexes noted below; since '.' does not match line terminators, a match may not have
+    // one outside the part that [^a-zA-Z]+ matches, and the counts of them below check that
+    static int keptLength(char[] chars, int length) {
+        int letters = 0; // ASCII letters so far
+        int lastLetter = -1; // Index of the last one
+        int terminators = 0; // Line terminators so far
+        int terminatorsAtLastLetter = 0; // Line terminators before the last letter
+        boolean interiorGap = false; // Whether some letters are separated by other characters
+        int gapTerminators = -1; // Most line terminators in one such gap
+
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                if (lastLetter >= 0 && lastLetter < i - 1) {
+                    interiorGap = true;
+                    gapTerminators = Math.max(gapTerminators, terminators - terminatorsAtLastLetter);
+                }
+                letters++;
+                lastLetter = i;
+                terminatorsAtLastLetter = terminators;
+            } else if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                terminators++;
+            }
+        }
+
+        if (interiorGap && gapTerminators == terminators) {
+            // Rule 1, .*[a-zA-Z][^a-zA-Z]+[a-zA-Z].*: discard words with special characters interspersed
+            // with letters
+            return -1;
+        } else if (lastLetter < length - 1 && terminatorsAtLastLetter == 0) {
+            // Rule 2, .*[^a-zA-Z]+$: trim trailing special characters (e.g., "BS!!!!" becomes "BS")
+            return lastLetter + 1;
+        } else if (length > 0 && letters == length) {
+            // Rule 3, [a-zA-Z]+: retain pure alphabetic words
+            return length;
         } else {
             // Default case: Discard anything that doesn't match the above rules
-            return null;
+            return -1;
         }
     }
 
+    // Increments the importance of a word and raises the subtree maximum of every node on its path
+    private int incrementImportance(String word, TrieNode node, int index, int amount) {
+        if (index == word.length()) { // Base case: reached the node of the word
+            if (node.wordLength == 0) {
+                return 0; // Not a complete word, so nothing changes
+            }
+            int importance = node.addImportance(amount, concurrent); // Atomic for concurrent importance updates
+            if (completionCacheSize > 0) {
+                updateCompletionCache(node, word, importance);
+            }
+            return importance;
+        }
+
+        TrieNode child = node.getChild(word.charAt(index)); // Search for the child node
+        if (child == null) {
+            return 0; // The word is not in the Trie
+        }
+
+        int importance = incrementImportance(word, child, index + 1, amount); // Recur for the next character
+        node.raiseMaxImportance(importance, concurrent); // Propagate the new maximum upwards
+        if (completionCacheSize > 0 && importance > 0) {
+            updateCompletionCache(node, word, importance); // Keep the cached completions current
+        }
+        return importance;
+    }
+
+    // Compiles the Trie into a read-only double-array trie. This Trie stays usable as the builder
+    public FrozenTrie freeze() {
+        return FrozenTrie.build(root);
+    }
+
+    // Writes the Trie, importances included, to a snapshot file that FrozenTrie.openSnapshot maps
+    public void writeSnapshot(String filePath) throws IOException {
+        freeze().writeSnapshot(filePath);
+    }
+
+    // Searches for a complete word in the Trie
+    public boolean searchRecursively(String word) {
+        TrieNode node = searchNode(word.toLowerCase(), root, 0);
+        return node != null && node.wordLength > 0;
+    }
+
     // Searches for a node in the Trie corresponding to a given word
     private TrieNode searchNode(String word, TrieNode node, int index) {
         if (node == null || index == word.length()) { // Base case: reached the end of the word
@@ -496,19 +2318,72 @@ public class TrieApp {
         }
 
         char c = word.charAt(index); // Get the current character
-        TrieNode child = node.children.search(c); // Search for the child node
+        TrieNode child = node.getChild(c); // Search for the child node
         return searchNode(word, child, index + 1); // Recur for the next character
     }
 
+    // Calculates the memory usage of the Trie, in the same way as TrieHashing.calcMem
+    public int calcMem() {
+        int[] memory = new int[1]; // Total so far, updated by the visitor
+        new TrieTraversal<>(new ChildLister(false)).walk(root, "", (node, path) -> {
+            memory[0] += 4 + 4 + 4; // Memory for wordLength, importance and maxImportance
+            memory[0] += 8 + 8; // Memory for the completion cache references
+            memory[0] += 2 + 8; // Memory for the inline child edge
+            memory[0] += 8; // Memory for the container reference
+            if (node.children != null) {
+                memory[0] += node.children.calcMem(); // Memory for the container of two or more children
+            }
+            return true;
+        });
+
+        return memory[0];
+    }
+
+    // Calculates the extra memory used by the completion cache arrays
+    public int calcCompletionCacheMem() {
+        int[] memory = new int[1];
+        new TrieTraversal<>(new ChildLister(false)).walk(root, "", (node, path) -> {
+            if (node.topWords != null) {
+                memory[0] += node.topWords.length * (8 /* word reference */ + 4 /* importance */);
+            }
+            return true;
+        });
+
+        return memory[0];
+    }
+
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.out.println("Usage: java TrieApp <dictionary file> <words file>");
+            System.out.println("Usage: java TrieApp <dictionary file> <words file> [snapshot file to write]");
+            System.out.println("       java TrieApp --snapshot <snapshot file>");
             return;
         }
 
-        TrieApp trie = new TrieApp();
-        trie.loadFile(args[0]); // Load dictionary file
-        trie.importanceUpdate(new File(args[1])); // Update importance using words file
+        BiFunction<String, Integer, String[]> topKWords; // The query the loop below answers
+        if (args[0].equals("--snapshot")) {
+            // Map a snapshot written earlier instead of loading the text files
+            try {
+                FrozenTrie frozen = FrozenTrie.openSnapshot(args[1]);
+                topKWords = (word, k) -> frozen.findTopKWords(word, k).getTopKWords(k);
+            } catch (IOException e) {
+                System.out.println("Error opening snapshot: " + e.getMessage());
+                return;
+            }
+        } else {
+            TrieApp trie = new TrieApp();
+            trie.loadFile(args[0]); // Load dictionary file
+            trie.importanceUpdate(new File(args[1])); // Update importance using words file
+            trie.enableQueryCache(1024); // Users often repeat a query
+            topKWords = trie::queryTopKWords;
+
+            if (args.length > 2) {
+                try {
+                    trie.writeSnapshot(args[2]); // Save the loaded Trie for faster startups
+                } catch (IOException e) {
+                    System.out.println("Error writing snapshot: " + e.getMessage());
+                }
+            }
+        }
 
         Scanner input = new Scanner(System.in);
 
@@ -524,7 +2399,7 @@ public class TrieApp {
             input.nextLine(); // Consume newline
 
             // Find and display the top k words
-            String[] result = trie.findTopKWords(searchWord, k).getTopKWords(k);
+            String[] result = topKWords.apply(searchWord, k);
             System.out.println("Top " + k + " words:");
             for (String word : result) {
                 System.out.println(word);
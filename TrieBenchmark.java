@@ -0,0 +1,1353 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.ref.Reference;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+public class TrieBenchmark {
+    private static final Random random = new Random(231); // Fixed seed so runs are comparable
+    private static final int QUERIES = 200; // Number of timed queries per measurement
+    private static final int WARMUP = 50; // Number of untimed queries run first for the JIT
+    private static final long TIME_BUDGET_NANOS = 3_000_000_000L; // Upper bound on time spent per measurement
+    private static final int K = 10; // Number of results requested per query
+
+    // Reads every non-empty, normalized word of a dictionary file
+    private static List<String> readWords(String fileName) throws IOException {
+        List<String> words = new ArrayList<>();
+        for (String line : Files.readAllLines(new File(fileName).toPath())) {
+            String word = line.trim().toLowerCase(); // Normalize like loadFile does
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    // Loads a dictionary into a TrieApp and gives its words importance from a sampled usage log
+    private static TrieApp loadWithImportance(String fileName, List<String> words) throws IOException {
+        TrieApp trie = new TrieApp();
+        trie.loadFile(fileName);
+
+        // Sample a usage log with a skewed distribution so some words are much more important
+        File usageFile = File.createTempFile("usage", ".txt");
+        usageFile.deleteOnExit();
+        try (PrintWriter writer = new PrintWriter(usageFile)) {
+            for (int i = 0; i < words.size(); i++) {
+                int index = (int) (words.size() * Math.pow(random.nextDouble(), 3)); // Favor the first words
+                writer.println(words.get(index));
+            }
+        }
+        trie.importanceUpdate(usageFile);
+        return trie;
+    }
+
+    // Measures completePrefix latency for prefixes of increasing length
+    private static void benchmarkPrefixLength(String fileName) throws IOException {
+        List<String> words = readWords(fileName);
+        TrieApp trie = loadWithImportance(fileName, words);
+
+        System.out.println(fileName + " (" + words.size() + " words)");
+        for (int length = 0; length <= 5; length++) {
+            measurePrefixQueries(trie, words, length);
+        }
+    }
+
+    // Compares completePrefix latency and memory with and without the completion cache
+    private static void benchmarkCompletionCache(String fileName) throws IOException {
+        List<String> words = readWords(fileName);
+        TrieApp trie = loadWithImportance(fileName, words);
+
+        System.out.println(fileName + " (" + words.size() + " words), trie memory " + trie.calcMem() + " bytes");
+        System.out.println(" without completion cache:");
+        for (int length = 1; length <= 3; length++) {
+            measurePrefixQueries(trie, words, length);
+        }
+
+        trie.enableCompletionCache(K);
+        System.out.println(" with completion cache, extra memory " + trie.calcCompletionCacheMem() + " bytes:");
+        for (int length = 1; length <= 3; length++) {
+            measurePrefixQueries(trie, words, length);
+        }
+    }
+
+    // Times completePrefix for random dictionary prefixes of the given length
+    private static void measurePrefixQueries(TrieApp trie, List<String> words, int length) {
+        // Pick the query prefixes up front so only completePrefix is timed
+        String[] prefixes = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String word = words.get(random.nextInt(words.size()));
+            prefixes[i] = word.substring(0, Math.min(length, word.length()));
+        }
+
+        // Warm up the JIT before timing, within the same time budget as the measurement
+        runQueries(prefix -> trie.completePrefix(prefix, K), prefixes, WARMUP);
+
+        long start = System.nanoTime();
+        int count = runQueries(prefix -> trie.completePrefix(prefix, K), prefixes, QUERIES);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("  prefix length %d: %.1f us/query (%d queries)%n", length,
+                elapsed / 1000.0 / count, count);
+    }
+
+    // Measures findTopKWords latency for dictionary words used as queries
+    private static void benchmarkTopK(String fileName) throws IOException {
+        List<String> words = readWords(fileName);
+        TrieApp trie = loadWithImportance(fileName, words);
+
+        String[] queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = words.get(random.nextInt(words.size()));
+        }
+
+        runQueries(word -> trie.findTopKWords(word, K), queries, WARMUP);
+
+        long start = System.nanoTime();
+        int count = runQueries(word -> trie.findTopKWords(word, K), queries, QUERIES);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%s (%d words): %.1f us/query (%d queries)%n", fileName, words.size(),
+                elapsed / 1000.0 / count, count);
+    }
+
+    // Measures the heap retained by Trie, TrieHashing and TrieApp after loading a dictionary
+    private static void benchmarkMemory(String fileName) {
+        long before = usedHeap();
+        Trie arrayTrie = new Trie();
+        arrayTrie.loadFile(fileName);
+        long arrayTrieHeap = usedHeap() - before;
+        Reference.reachabilityFence(arrayTrie); // Keep the trie alive until after the measurement
+        arrayTrie = null;
+
+        before = usedHeap();
+        TrieHashing trieHashing = new TrieHashing();
+        trieHashing.loadFile(fileName);
+        long trieHashingHeap = usedHeap() - before;
+        int trieHashingCalcMem = trieHashing.calcMem();
+        Reference.reachabilityFence(trieHashing);
+        trieHashing = null;
+
+        before = usedHeap();
+        TrieApp trieApp = new TrieApp();
+        trieApp.loadFile(fileName);
+        long trieAppHeap = usedHeap() - before;
+        Reference.reachabilityFence(trieApp);
+
+        System.out.printf("%s: Trie %d bytes, TrieHashing %d bytes (calcMem %d), TrieApp %d bytes (calcMem %d)%n",
+                fileName, arrayTrieHeap, trieHashingHeap, trieHashingCalcMem, trieAppHeap, trieApp.calcMem());
+    }
+
+    // Compares word lookup speed of the array-based Trie and TrieApp
+    private static void benchmarkLookup(String fileName) throws IOException {
+        List<String> words = readWords(fileName);
+        Trie arrayTrie = new Trie();
+        arrayTrie.loadFile(fileName);
+        TrieApp trieApp = new TrieApp();
+        trieApp.loadFile(fileName);
+
+        long arrayTrieTime = 0, trieAppTime = 0;
+        for (int pass = 0; pass < 3; pass++) { // The first pass also warms up the JIT
+            long start = System.nanoTime();
+            for (String word : words) {
+                arrayTrie.searchRecursively(word);
+            }
+            arrayTrieTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String word : words) {
+                trieApp.searchRecursively(word);
+            }
+            trieAppTime = System.nanoTime() - start;
+        }
+
+        System.out.printf("%s: Trie %.0f ns/lookup, TrieApp %.0f ns/lookup%n", fileName,
+                (double) arrayTrieTime / words.size(), (double) trieAppTime / words.size());
+    }
+
+    // Compares heap, lookup, completePrefix and findTopKWords of a TrieApp and its frozen copy
+    private static void benchmarkFrozen(String fileName) throws IOException {
+        List<String> words = readWords(fileName);
+        long before = usedHeap();
+        TrieApp trie = loadWithImportance(fileName, words);
+        long trieHeap = usedHeap() - before;
+
+        before = usedHeap();
+        long start = System.nanoTime();
+        FrozenTrie frozen = trie.freeze();
+        long freezeTime = System.nanoTime() - start;
+        long frozenHeap = usedHeap() - before;
+        System.out.printf("%s (%d words): freeze %.0f ms, TrieApp %d bytes, FrozenTrie %d bytes (%d slots)%n",
+                fileName, words.size(), freezeTime / 1e6, trieHeap, frozenHeap, frozen.size());
+
+        long trieTime = 0, frozenTime = 0;
+        for (int pass = 0; pass < 3; pass++) { // The first pass also warms up the JIT
+            start = System.nanoTime();
+            for (String word : words) {
+                trie.searchRecursively(word);
+            }
+            trieTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String word : words) {
+                frozen.contains(word);
+            }
+            frozenTime = System.nanoTime() - start;
+        }
+        System.out.printf("  lookup: TrieApp %.0f ns, FrozenTrie %.0f ns%n",
+                (double) trieTime / words.size(), (double) frozenTime / words.size());
+
+        String[] prefixes = new String[QUERIES];
+        String[] queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String word = words.get(random.nextInt(words.size()));
+            prefixes[i] = word.substring(0, Math.min(2, word.length()));
+            queries[i] = words.get(random.nextInt(words.size()));
+        }
+        System.out.printf("  completePrefix: TrieApp %.1f us, FrozenTrie %.1f us%n",
+                timeQueries(prefix -> trie.completePrefix(prefix, K), prefixes),
+                timeQueries(prefix -> frozen.completePrefix(prefix, K), prefixes));
+        System.out.printf("  findTopKWords: TrieApp %.1f us, FrozenTrie %.1f us%n",
+                timeQueries(word -> trie.findTopKWords(word, K), queries),
+                timeQueries(word -> frozen.findTopKWords(word, K), queries));
+        Reference.reachabilityFence(trie);
+    }
+
+    // Compares startup from the text files with opening a mapped snapshot, and query latency on each
+    private static void benchmarkSnapshot(String fileName) throws IOException {
+        List<String> words = readWords(fileName);
+        long start = System.nanoTime();
+        TrieApp trie = loadWithImportance(fileName, words);
+        long loadTime = System.nanoTime() - start;
+
+        File snapshotFile = File.createTempFile("trie", ".snapshot");
+        snapshotFile.deleteOnExit();
+        start = System.nanoTime();
+        trie.writeSnapshot(snapshotFile.getPath());
+        long writeTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        FrozenTrie mapped = FrozenTrie.openSnapshot(snapshotFile.getPath());
+        long openTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        mapped.findTopKWords(words.get(0), K); // The first query pages in the states it visits
+        long firstQueryTime = System.nanoTime() - start;
+
+        System.out.printf("%s (%d words): load %.0f ms, write snapshot %.0f ms (%d bytes), open %.2f ms, "
+                + "first query %.2f ms%n", fileName, words.size(), loadTime / 1e6, writeTime / 1e6,
+                snapshotFile.length(), openTime / 1e6, firstQueryTime / 1e6);
+
+        FrozenTrie frozen = trie.freeze();
+        String[] queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = words.get(random.nextInt(words.size()));
+        }
+        System.out.printf("  findTopKWords: FrozenTrie %.1f us, mapped snapshot %.1f us%n",
+                timeQueries(word -> frozen.findTopKWords(word, K), queries),
+                timeQueries(word -> mapped.findTopKWords(word, K), queries));
+    }
+
+    // Compares load throughput of the Scanner loop that loadFile used before with DictionaryReader
+    private static void benchmarkLoad(String fileName) throws IOException {
+        int words = DictionaryReader.readWords(fileName, (word, length) -> { });
+        System.out.printf("%s (%d words), words/s Scanner vs DictionaryReader:%n", fileName, words);
+
+        System.out.printf("  parse only: %,.0f vs %,.0f%n",
+                bestRate(words, () -> loadWithScanner(fileName, word -> { })),
+                bestRate(words, () -> DictionaryReader.readWords(fileName, (word, length) -> { })));
+        System.out.printf("  Trie: %,.0f vs %,.0f%n",
+                bestRate(words, () -> loadWithScanner(fileName, new Trie()::insert)),
+                bestRate(words, () -> new Trie().loadFile(fileName)));
+        System.out.printf("  TrieHashing: %,.0f vs %,.0f%n",
+                bestRate(words, () -> loadWithScanner(fileName, new TrieHashing()::insertRecursively)),
+                bestRate(words, () -> new TrieHashing().loadFile(fileName)));
+        System.out.printf("  TrieApp: %,.0f vs %,.0f%n",
+                bestRate(words, () -> loadWithScanner(fileName, new TrieApp()::insertRecursively)),
+                bestRate(words, () -> new TrieApp().loadFile(fileName)));
+    }
+
+    // Measures how loadFileParallel scales from one worker up to one per core
+    private static void benchmarkParallelLoad(String fileName) throws IOException {
+        int words = DictionaryReader.readWords(fileName, (word, length) -> { });
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%s (%d words), %d cores, words/s:%n", fileName, words, cores);
+
+        double trieAppSequential = bestRate(words, () -> new TrieApp().loadFile(fileName));
+        double trieHashingSequential = bestRate(words, () -> new TrieHashing().loadFile(fileName));
+        System.out.printf("  loadFile: TrieApp %,.0f, TrieHashing %,.0f%n", trieAppSequential,
+                trieHashingSequential);
+
+        for (int workers = 1;; workers = Math.min(workers * 2, cores)) { // Powers of two, then all cores
+            int parallelism = workers;
+            double trieApp = bestRate(words, () -> new TrieApp().loadFileParallel(fileName, parallelism));
+            double trieHashing = bestRate(words, () -> new TrieHashing().loadFileParallel(fileName, parallelism));
+            System.out.printf("  %d workers: TrieApp %,.0f (%.2fx), TrieHashing %,.0f (%.2fx)%n", workers,
+                    trieApp, trieApp / trieAppSequential, trieHashing, trieHashing / trieHashingSequential);
+            if (workers == cores) {
+                break;
+            }
+        }
+    }
+
+    // Compares loadFile with buildFromSorted on the dictionary as given and on a sorted copy of it
+    private static void benchmarkSortedBuild(String fileName) throws IOException {
+        List<String> words = readWords(fileName);
+        List<String> sortedWords = new ArrayList<>(words);
+        Collections.sort(sortedWords);
+        File sortedFile = File.createTempFile("sorted", ".txt");
+        sortedFile.deleteOnExit();
+        Files.write(sortedFile.toPath(), sortedWords);
+        String sortedName = sortedFile.getPath();
+
+        System.out.printf("%s (%d words), loadFile vs buildFromSorted:%n", fileName, words.size());
+        System.out.printf("  as given: %,.0f vs %,.0f words/s, %,d vs %,d bytes allocated%n",
+                bestRate(words.size(), () -> new TrieApp().loadFile(fileName)),
+                bestRate(words.size(), () -> new TrieApp().buildFromSorted(fileName)),
+                allocatedBytes(() -> new TrieApp().loadFile(fileName)),
+                allocatedBytes(() -> new TrieApp().buildFromSorted(fileName)));
+        System.out.printf("  sorted: %,.0f vs %,.0f words/s, %,d vs %,d bytes allocated%n",
+                bestRate(words.size(), () -> new TrieApp().loadFile(sortedName)),
+                bestRate(words.size(), () -> new TrieApp().buildFromSorted(sortedName)),
+                allocatedBytes(() -> new TrieApp().loadFile(sortedName)),
+                allocatedBytes(() -> new TrieApp().buildFromSorted(sortedName)));
+    }
+
+    // Gets the number of bytes the current thread allocates while running a load
+    private static long allocatedBytes(Load load) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        load.run();
+        return threads.getCurrentThreadAllocatedBytes() - before;
+    }
+
+    // Stress test of concurrent mode: readers query without pause while one thread inserts the second
+    // half of the dictionary and others feed usage logs to importanceUpdate. Readers check that every
+    // word of the first half stays findable; afterwards the inserts and importance counts are checked
+    private static void benchmarkConcurrent(String fileName) throws IOException, InterruptedException {
+        List<String> words = readWords(fileName);
+        List<String> initialWords = words.subList(0, words.size() / 2);
+        List<String> insertedWords = words.subList(words.size() / 2, words.size());
+
+        TrieApp trie = new TrieApp(true);
+        for (String word : initialWords) {
+            trie.insertRecursively(word, 0);
+        }
+
+        // One usage log per updater thread, drawn from the initial words so the final counts are known
+        int updaters = 2;
+        Map<String, Integer> expectedImportance = new HashMap<>();
+        List<File> usageFiles = new ArrayList<>();
+        for (int i = 0; i < updaters; i++) {
+            File usageFile = File.createTempFile("usage", ".txt");
+            usageFile.deleteOnExit();
+            try (PrintWriter writer = new PrintWriter(usageFile)) {
+                for (int j = 0; j < initialWords.size(); j++) {
+                    String word = initialWords.get((int) (initialWords.size() * Math.pow(random.nextDouble(), 3)));
+                    writer.println(word);
+                    expectedImportance.merge(word, 1, Integer::sum);
+                }
+            }
+            usageFiles.add(usageFile);
+        }
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong queries = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            long seed = random.nextLong();
+            readers.add(new Thread(() -> {
+                Random readerRandom = new Random(seed);
+                try {
+                    while (writing.get()) {
+                        String word = initialWords.get(readerRandom.nextInt(initialWords.size()));
+                        if (!trie.searchRecursively(word)) {
+                            errors.incrementAndGet(); // A word inserted before the start went missing
+                        }
+                        trie.findTopKWords(word, K);
+                        trie.completePrefix(word.substring(0, Math.min(2, word.length())), K);
+                        queries.incrementAndGet();
+                    }
+                } catch (RuntimeException e) {
+                    errors.incrementAndGet(); // A query failed on a half-updated Trie
+                    System.out.println("Error in reader: " + e.getMessage());
+                }
+            }));
+        }
+
+        List<Thread> writers = new ArrayList<>();
+        writers.add(new Thread(() -> {
+            for (String word : insertedWords) {
+                trie.insertRecursively(word, 0);
+            }
+        }));
+        for (File usageFile : usageFiles) {
+            writers.add(new Thread(() -> trie.importanceUpdate(usageFile)));
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : readers) {
+            thread.start();
+        }
+        for (Thread thread : writers) {
+            thread.start();
+        }
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        writing.set(false);
+        for (Thread thread : readers) {
+            thread.join();
+        }
+
+        // Every insert must have landed and no importance increment may have been lost
+        for (String word : insertedWords) {
+            if (!trie.searchRecursively(word)) {
+                errors.incrementAndGet();
+            }
+        }
+        FrozenTrie frozen = trie.freeze();
+        int maxImportance = 0;
+        for (Map.Entry<String, Integer> entry : expectedImportance.entrySet()) {
+            if (frozen.getImportance(entry.getKey()) != entry.getValue()) {
+                errors.incrementAndGet();
+            }
+            maxImportance = Math.max(maxImportance, entry.getValue());
+        }
+        String[] top = frozen.completePrefix("", 1);
+        if (top.length == 0 || frozen.getImportance(top[0]) != maxImportance) {
+            errors.incrementAndGet(); // The subtree maxima must have kept up with the counts
+        }
+
+        System.out.printf("%s: %d readers ran %d queries (%.0f/s) during %d inserts and %d importance updates "
+                + "in %.0f ms, %d errors%n", fileName, readers.size(), queries.get(), queries.get() / (elapsed / 1e9),
+                insertedWords.size(), updaters * initialWords.size(), elapsed / 1e6, errors.get());
+    }
+
+    // Counts a Zipf-distributed stream of word uses with recordUsage from 1, 2, 4 and 8 threads, each
+    // thread counting the same number of uses, then folds them in and checks the resulting importance
+    private static void benchmarkStripedCounts(String fileName) throws IOException, InterruptedException {
+        List<String> words = readWords(fileName);
+        String[] stream = zipfStream(words, 1 << 21);
+        int usesPerThread = stream.length / 2;
+        TrieApp trie = new TrieApp(true);
+        for (String word : words) {
+            trie.insertRecursively(word, 0);
+        }
+
+        Map<String, Integer> expectedImportance = new HashMap<>();
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            List<Thread> counters = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int offset = t * (stream.length / 8); // Different threads start at different points
+                counters.add(new Thread(() -> {
+                    for (int i = 0; i < usesPerThread; i++) {
+                        trie.recordUsage(stream[(offset + i) % stream.length]);
+                    }
+                }));
+                for (int i = 0; i < usesPerThread; i++) {
+                    expectedImportance.merge(stream[(offset + i) % stream.length], 1, Integer::sum);
+                }
+            }
+
+            long start = System.nanoTime();
+            for (Thread thread : counters) {
+                thread.start();
+            }
+            for (Thread thread : counters) {
+                thread.join();
+            }
+            long counted = System.nanoTime();
+            trie.foldImportance();
+            long folded = System.nanoTime();
+
+            long uses = (long) threads * usesPerThread;
+            System.out.printf("%s: %d threads counted %d uses at %.1f M/s, fold %.1f ms%n", fileName, threads,
+                    uses, uses / ((counted - start) / 1e3), (folded - counted) / 1e6);
+        }
+
+        int errors = 0;
+        FrozenTrie frozen = trie.freeze();
+        for (Map.Entry<String, Integer> entry : expectedImportance.entrySet()) {
+            if (frozen.getImportance(entry.getKey()) != entry.getValue()) {
+                errors++;
+            }
+        }
+        System.out.println(fileName + ": " + errors + " words with a wrong importance");
+    }
+
+    // Draws word uses with Zipf's law: the word of rank r, in dictionary order, has weight 1 / r
+    private static String[] zipfStream(List<String> words, int length) {
+        double[] cumulative = new double[words.size()];
+        double total = 0;
+        for (int r = 0; r < cumulative.length; r++) {
+            total += 1.0 / (r + 1);
+            cumulative[r] = total;
+        }
+
+        String[] stream = new String[length];
+        for (int i = 0; i < length; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            stream[i] = words.get(rank >= 0 ? rank : Math.min(-rank - 1, words.size() - 1));
+        }
+        return stream;
+    }
+
+    // Times importanceUpdate on a 512 MB usage log of Zipf-distributed words with punctuation and
+    // mixed case, and reports the peak heap while it runs, which should not grow with the log
+    private static void benchmarkIngest(String fileName) throws IOException {
+        List<String> words = readWords(fileName);
+        String[] stream = zipfStream(words, 1 << 16);
+        String[] endings = { " ", " ", "\n", ", ", ". ", "!\r\n", "\t" };
+
+        File usageFile = File.createTempFile("usage", ".txt");
+        usageFile.deleteOnExit();
+        long uses = 0;
+        try (PrintWriter writer = new PrintWriter(usageFile)) {
+            for (long written = 0; written < 512L << 20; uses++) {
+                String word = stream[(int) (uses % stream.length)];
+                if (uses % 7 == 0) {
+                    word = word.toUpperCase();
+                }
+                String ending = endings[(int) (uses % endings.length)];
+                writer.print(word);
+                writer.print(ending);
+                written += word.length() + ending.length();
+            }
+        }
+
+        TrieApp trie = new TrieApp();
+        trie.loadFile(fileName);
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+
+        long start = System.nanoTime();
+        trie.importanceUpdate(usageFile);
+        long elapsed = System.nanoTime() - start;
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.printf("%s: %d uses in %d MB at %.0f MB/s, peak heap %d MB%n", fileName, uses,
+                usageFile.length() >> 20, usageFile.length() / 1e6 / (elapsed / 1e9), peakHeap >> 20);
+        usageFile.delete();
+    }
+
+    // Checks TrieApp.processWord against the regex rules it replaced, on dictionary words with
+    // punctuation and on random tokens over letters, digits, punctuation, line terminators and
+    // characters whose lowercase form changes class or length, then compares their speed
+    private static void benchmarkTokenizer(String fileName) throws IOException {
+        List<String> words = readWords(fileName);
+        String[] endings = { "", "", "!", "!!!", ".", ",", "?1", "-", "'s" };
+        String[] tokens = new String[1 << 20];
+        for (int i = 0; i < tokens.length; i++) {
+            String word = words.get(random.nextInt(words.size()));
+            switch (i % 6) {
+                case 0:
+                    word = word.toUpperCase();
+                    break;
+                case 1:
+                    word = word.substring(0, word.length() / 2) + "-" + word.substring(word.length() / 2);
+                    break;
+                case 2:
+                    word = "1" + word;
+                    break;
+                default:
+                    break;
+            }
+            tokens[i] = word + endings[random.nextInt(endings.length)];
+        }
+
+        String alphabet = "aZq!1 -.\n\r\u0085\u2028\u2029\u0001\u00e9\u0130\u212a\ud83d\ude00";
+        int mismatches = 0;
+        for (int i = 0; i < 2_000_000; i++) {
+            StringBuilder token = new StringBuilder();
+            for (int length = random.nextInt(8); length > 0; length--) {
+                token.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            mismatches += matchesRegexRules(token.toString()) ? 0 : 1;
+        }
+        for (String token : tokens) {
+            mismatches += matchesRegexRules(token) ? 0 : 1;
+        }
+        System.out.println(fileName + ": " + mismatches + " tokens processed differently from the regex rules");
+
+        for (int pass = 0; pass < 3; pass++) {
+            long start = System.nanoTime();
+            int kept = 0;
+            for (String token : tokens) {
+                kept += processWordWithRegex(token) != null ? 1 : 0;
+            }
+            long regex = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (String token : tokens) {
+                kept -= TrieApp.processWord(token) != null ? 1 : 0;
+            }
+            long scan = System.nanoTime() - start;
+            System.out.printf("%s: regex rules %.2f M tokens/s, single pass %.2f M tokens/s%s%n", fileName,
+                    tokens.length / (regex / 1e3), tokens.length / (scan / 1e3), kept == 0 ? "" : " (results differ)");
+        }
+    }
+
+    private static boolean matchesRegexRules(String token) {
+        String expected = processWordWithRegex(token);
+        String actual = TrieApp.processWord(token);
+        if (expected == null ? actual == null : expected.equals(actual)) {
+            return true;
+        }
+        System.out.println("Differs on \"" + token + "\": " + expected + " and " + actual);
+        return false;
+    }
+
+    // TrieApp.processWord as it was written with regexes
+    private static String processWordWithRegex(String word) {
+        word = word.toLowerCase();
+        if (word.matches(".*[a-zA-Z][^a-zA-Z]+[a-zA-Z].*")) {
+            return null;
+        } else if (word.matches(".*[^a-zA-Z]+$")) {
+            return word.replaceAll("[^a-zA-Z]+$", "");
+        } else if (word.matches("[a-zA-Z]+")) {
+            return word;
+        } else {
+            return null;
+        }
+    }
+
+    // Compares importanceUpdate, which walks the Trie once per word, with bulkImportanceUpdate on a
+    // log of 1M Zipf-distributed words, and checks that both give every word the same importance.
+    // importanceUpdate on an empty Trie times its tokenizing alone, to separate it from the walks
+    private static void benchmarkBulkUpdate(String fileName) throws IOException {
+        List<String> words = readWords(fileName);
+        String[] stream = zipfStream(words, 1 << 20);
+        String log = String.join("\n", stream);
+
+        for (int pass = 0; pass < 3; pass++) {
+            TrieApp perWord = new TrieApp();
+            perWord.loadFile(fileName);
+            TrieApp bulk = new TrieApp();
+            bulk.loadFile(fileName);
+            TrieApp empty = new TrieApp();
+
+            long start = System.nanoTime();
+            empty.importanceUpdate(new StringReader(log));
+            long tokenizing = System.nanoTime() - start;
+            start = System.nanoTime();
+            perWord.importanceUpdate(new StringReader(log));
+            long perWordTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            bulk.bulkImportanceUpdate(Arrays.stream(stream));
+            long bulkTime = System.nanoTime() - start;
+
+            int differences = 0;
+            FrozenTrie perWordFrozen = perWord.freeze();
+            FrozenTrie bulkFrozen = bulk.freeze();
+            for (String word : words) {
+                if (perWordFrozen.getImportance(word) != bulkFrozen.getImportance(word)) {
+                    differences++;
+                }
+            }
+            System.out.printf("%s: %d uses, per word %.0f ms (%.0f ms of it tokenizing), bulk %.0f ms, "
+                    + "%d differences%n", fileName, stream.length, perWordTime / 1e6, tokenizing / 1e6,
+                    bulkTime / 1e6, differences);
+        }
+    }
+
+    // Measures the bytes allocated and the time taken by the tree walks of Trie, TrieHashing and TrieApp.
+    // printWords writes to a stream that discards its output
+    private static void benchmarkTraversal(String fileName) throws IOException {
+        List<String> words = readWords(fileName);
+        Trie trie = new Trie();
+        trie.loadFile(fileName);
+        TrieHashing trieHashing = new TrieHashing();
+        trieHashing.loadFile(fileName);
+        TrieApp trieApp = loadWithImportance(fileName, words);
+        String[] queries = new String[1000];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = words.get(random.nextInt(words.size()));
+        }
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int pass = 0; pass < 2; pass++) { // The first pass warms up
+                measureWalk(out, fileName, "Trie.printWords", trie::printWords);
+                measureWalk(out, fileName, "TrieHashing.printWords", trieHashing::printWords);
+                measureWalk(out, fileName, "Trie.calcMem", trie::calcMem);
+                measureWalk(out, fileName, "TrieHashing.calcMem", trieHashing::calcMem);
+                measureWalk(out, fileName, "TrieApp.calcMem", trieApp::calcMem);
+                measureWalk(out, fileName, "1000 findTopKWords", () -> {
+                    for (String query : queries) {
+                        trieApp.findTopKWords(query, K);
+                    }
+                });
+                measureWalk(out, fileName, "1000 completePrefix", () -> {
+                    for (String query : queries) {
+                        trieApp.completePrefix(query.substring(0, 1), K);
+                    }
+                });
+                measureWalk(out, fileName, "enableCompletionCache", () -> trieApp.enableCompletionCache(K));
+                trieApp.disableCompletionCache();
+            }
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    private static void measureWalk(PrintStream out, String fileName, String walk, Load load) throws IOException {
+        long start = System.nanoTime();
+        long allocated = allocatedBytes(load);
+        out.printf("%s: %-22s %,14d bytes allocated, %7.1f ms%n", fileName, walk, allocated,
+                (System.nanoTime() - start) / 1e6);
+    }
+
+    // Times findFuzzyWords for distances 0 to 3 against a scan that computes the edit distance to every
+    // dictionary word, and checks that both find words of the same importance
+    private static void benchmarkFuzzy(String fileName) throws IOException {
+        List<String> words = readWords(fileName);
+        TrieApp trie = loadWithImportance(fileName, words);
+        FrozenTrie frozen = trie.freeze();
+        int[] importance = new int[words.size()];
+        for (int i = 0; i < importance.length; i++) {
+            importance[i] = frozen.getImportance(words.get(i));
+        }
+
+        // Typos, but also queries much shorter and much longer than the words, whose last cell of
+        // the distance table lies outside the band the search fills for most paths
+        String[] queries = new String[60];
+        for (int i = 0; i < queries.length; i++) {
+            String word = words.get(random.nextInt(words.size()));
+            switch (i % 4) {
+                case 0:
+                    char[] query = word.toCharArray();
+                    query[random.nextInt(query.length)] = (char) ('a' + random.nextInt(26)); // A typo
+                    queries[i] = new String(query);
+                    break;
+                case 1:
+                    queries[i] = word.substring(0, Math.min(word.length(), 1 + random.nextInt(3))); // Short
+                    break;
+                case 2:
+                    queries[i] = word + words.get(random.nextInt(words.size())); // Long
+                    break;
+                default:
+                    queries[i] = word + (char) ('a' + random.nextInt(26)); // One insertion
+                    break;
+            }
+        }
+
+        for (int distance = 0; distance <= 3; distance++) {
+            int maxDistance = distance;
+            for (String query : queries) { // Warm up
+                trie.findFuzzyWords(query, maxDistance, K);
+            }
+
+            int differences = 0;
+            long trieTime = 0;
+            long scanTime = 0;
+            for (String query : queries) {
+                long start = System.nanoTime();
+                String[] found = trie.findFuzzyWords(query, maxDistance, K).getTopKWords(K);
+                trieTime += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                TrieApp.MinHeap heap = new TrieApp.MinHeap(K);
+                for (int i = 0; i < importance.length; i++) {
+                    if (importance[i] > 0 && editDistance(words.get(i), query) <= maxDistance) {
+                        heap.insert(words.get(i), importance[i]);
+                    }
+                }
+                String[] scanned = heap.getTopKWords(K);
+                scanTime += System.nanoTime() - start;
+
+                // Ties may pick different words, so compare the importances
+                int[] foundImportance = new int[found.length];
+                int[] scannedImportance = new int[scanned.length];
+                for (int i = 0; i < found.length; i++) {
+                    foundImportance[i] = frozen.getImportance(found[i]);
+                }
+                for (int i = 0; i < scanned.length; i++) {
+                    scannedImportance[i] = frozen.getImportance(scanned[i]);
+                }
+                differences += Arrays.equals(foundImportance, scannedImportance) ? 0 : 1;
+            }
+            System.out.printf("%s: distance %d, trie %.1f us/query, scan %.1f us/query, %d differences%n",
+                    fileName, distance, trieTime / 1e3 / queries.length, scanTime / 1e3 / queries.length,
+                    differences);
+        }
+    }
+
+    // Times findSimilarWords against a scan that calls areCharactersSimilar on every dictionary word,
+    // and checks that both find words of the same importance
+    private static void benchmarkSimilar(String fileName) throws IOException {
+        List<String> words = readWords(fileName);
+        TrieApp trie = loadWithImportance(fileName, words);
+        FrozenTrie frozen = trie.freeze();
+        int[] importance = new int[words.size()];
+        for (int i = 0; i < importance.length; i++) {
+            importance[i] = frozen.getImportance(words.get(i));
+        }
+
+        String[] queries = new String[QUERIES];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = words.get(random.nextInt(words.size()));
+        }
+        for (String query : queries) { // Warm up
+            trie.findSimilarWords(query, K);
+        }
+
+        int differences = 0;
+        long trieTime = 0;
+        long scanTime = 0;
+        for (String query : queries) {
+            long start = System.nanoTime();
+            String[] found = trie.findSimilarWords(query, K).getTopKWords(K);
+            trieTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            TrieApp.MinHeap heap = new TrieApp.MinHeap(K);
+            for (int i = 0; i < importance.length; i++) {
+                int lengthDifference = words.get(i).length() - query.length();
+                if (importance[i] > 0 && lengthDifference >= -1 && lengthDifference <= 2
+                        && TrieApp.areCharactersSimilar(words.get(i), query)) {
+                    heap.insert(words.get(i), importance[i]);
+                }
+            }
+            String[] scanned = heap.getTopKWords(K);
+            scanTime += System.nanoTime() - start;
+
+            // Ties may pick different words, so compare the importances
+            int[] foundImportance = new int[found.length];
+            int[] scannedImportance = new int[scanned.length];
+            for (int i = 0; i < found.length; i++) {
+                foundImportance[i] = frozen.getImportance(found[i]);
+            }
+            for (int i = 0; i < scanned.length; i++) {
+                scannedImportance[i] = frozen.getImportance(scanned[i]);
+            }
+            differences += Arrays.equals(foundImportance, scannedImportance) ? 0 : 1;
+        }
+        System.out.printf("%s (%d words): trie %.1f us/query, scan %.1f us/query, %d differences%n",
+                fileName, words.size(), trieTime / 1e3 / queries.length, scanTime / 1e3 / queries.length,
+                differences);
+    }
+
+    // Runs 100k Zipf-distributed findTopKWords queries through queryTopKWords, with a small importance
+    // update after every 1000 of them, for several query cache sizes. Reports the query time and the
+    // cache counters, and checks every cached answer against an uncached query of the same Trie
+    private static void benchmarkQueryCache(String fileName) throws IOException {
+        List<String> words = readWords(fileName);
+        TrieApp trie = loadWithImportance(fileName, words);
+        List<String> shuffled = new ArrayList<>(words);
+        Collections.shuffle(shuffled, random); // Popular queries all over the dictionary
+        String[] queries = zipfStream(shuffled, 100_000);
+        String[] uses = zipfStream(words, 100 * queries.length / 1000);
+
+        for (int capacity : new int[] { 0, 256, 1024, 4096 }) {
+            if (capacity == 0) {
+                trie.disableQueryCache();
+            } else {
+                trie.enableQueryCache(capacity);
+            }
+
+            long queryTime = 0;
+            int differences = 0;
+            for (int i = 0; i < queries.length; i++) {
+                if (i % 1000 == 999) {
+                    int batch = i / 1000;
+                    trie.bulkImportanceUpdate(Arrays.stream(uses, batch * 100, batch * 100 + 100));
+                }
+
+                long start = System.nanoTime();
+                String[] result = trie.queryTopKWords(queries[i], K);
+                queryTime += System.nanoTime() - start;
+
+                if (i % 10 == 0 && !Arrays.equals(result, trie.findTopKWords(queries[i], K).getTopKWords(K))) {
+                    differences++; // A sample, so the check does not evict the cache's own work
+                }
+            }
+
+            TrieApp.QueryCacheStats stats = trie.getQueryCacheStats();
+            System.out.printf("%s: capacity %d, %.1f us/query, %d differences, %s%n", fileName, capacity,
+                    queryTime / 1e3 / queries.length, differences, stats == null ? "no cache" : stats);
+        }
+    }
+
+    // Compares the throughput of findTopKWordsBatch, on one thread and on a pool with a thread per
+    // processor, with calling findTopKWords for each word, for batches of several sizes
+    private static void benchmarkBatch(String fileName) throws IOException {
+        List<String> words = readWords(fileName);
+        TrieApp trie = loadWithImportance(fileName, words);
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        for (int size : new int[] { 10, 100, 500, 2000 }) {
+            List<List<String>> batches = new ArrayList<>();
+            for (int i = 0; i < Math.max(4, 4000 / size); i++) {
+                List<String> batch = new ArrayList<>();
+                for (int j = 0; j < size; j++) {
+                    batch.add(words.get(random.nextInt(words.size())));
+                }
+                batches.add(batch);
+            }
+
+            long singleTime = Long.MAX_VALUE;
+            long batchTime = Long.MAX_VALUE;
+            long poolTime = Long.MAX_VALUE;
+            int differences = 0;
+            for (int pass = 0; pass < 3; pass++) { // The first pass also warms up the JIT
+                List<String[]> singleResults = new ArrayList<>();
+                long start = System.nanoTime();
+                for (List<String> batch : batches) {
+                    for (String word : batch) {
+                        singleResults.add(trie.findTopKWords(word, K).getTopKWords(K));
+                    }
+                }
+                singleTime = Math.min(singleTime, System.nanoTime() - start);
+
+                List<String[]> batchResults = new ArrayList<>();
+                start = System.nanoTime();
+                for (List<String> batch : batches) {
+                    batchResults.addAll(trie.findTopKWordsBatch(batch, K));
+                }
+                batchTime = Math.min(batchTime, System.nanoTime() - start);
+
+                List<String[]> poolResults = new ArrayList<>();
+                start = System.nanoTime();
+                for (List<String> batch : batches) {
+                    poolResults.addAll(trie.findTopKWordsBatch(batch, K, pool));
+                }
+                poolTime = Math.min(poolTime, System.nanoTime() - start);
+
+                differences = 0;
+                for (int i = 0; i < singleResults.size(); i++) {
+                    if (!Arrays.equals(singleResults.get(i), batchResults.get(i))
+                            || !Arrays.equals(singleResults.get(i), poolResults.get(i))) {
+                        differences++;
+                    }
+                }
+            }
+
+            double queries = batches.size() * size;
+            System.out.printf("%s: batches of %d, single %.0f queries/s, batch %.0f queries/s, "
+                    + "batch on %d threads %.0f queries/s, %d differences%n", fileName, size,
+                    queries * 1e9 / singleTime, queries * 1e9 / batchTime, pool.getParallelism(),
+                    queries * 1e9 / poolTime, differences);
+        }
+        pool.shutdown();
+    }
+
+    // Starts a TrieServer on a frozen dictionary and loads it from many client connections, which
+    // send their requests in pipelined bursts. Reports the queries per second and the p50 and p99
+    // latency for several numbers of connections and burst sizes, and checks every answer
+    private static void benchmarkServer(String fileName) throws IOException, InterruptedException {
+        List<String> words = readWords(fileName);
+        FrozenTrie trie = loadWithImportance(fileName, words).freeze();
+        String[] queries = new String[1000];
+        String[] expected = new String[queries.length]; // The answer line for each query
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = words.get(random.nextInt(words.size()));
+            expected[i] = String.join("\t", trie.findTopKWords(queries[i], K).getTopKWords(K));
+        }
+
+        try (TrieServer server = new TrieServer(trie, 0)) {
+            runLoad(server.getPort(), queries, expected, 10, 1, 200); // Warm up
+            for (int connections : new int[] { 10, 100, 1000, 2000 }) {
+                for (int burst : new int[] { 1, 16 }) {
+                    System.out.println(fileName + ": " + runLoad(server.getPort(), queries, expected,
+                            connections, burst, Math.max(32, 32_000 / connections)));
+                }
+            }
+        }
+    }
+
+    // Runs a load of `connections` clients that each send `requests` random queries, `burst` at a
+    // time before reading the answers, and describes its throughput and latency. The latency of a
+    // request runs from the write of its burst to the read of its answer
+    private static String runLoad(int port, String[] queries, String[] expected, int connections, int burst,
+            int requests) throws InterruptedException {
+        long[] latencies = new long[connections * requests];
+        AtomicInteger answered = new AtomicInteger();
+        AtomicInteger wrong = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService clients = TrieServer.newThreadPerTaskExecutor();
+
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            int first = c * requests; // This client's part of latencies
+            clients.execute(() -> {
+                Random clientRandom = new Random(first); // Random is shared by threads otherwise
+                try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                        BufferedReader in = new BufferedReader(
+                                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                        BufferedWriter out = new BufferedWriter(
+                                new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+                    socket.setTcpNoDelay(true);
+                    int[] sent = new int[burst];
+                    for (int done = 0; done < requests; ) {
+                        int count = Math.min(burst, requests - done);
+                        for (int i = 0; i < count; i++) {
+                            sent[i] = clientRandom.nextInt(queries.length);
+                            out.write(K + " " + queries[sent[i]] + "\n");
+                        }
+                        long sentAt = System.nanoTime();
+                        out.flush();
+                        for (int i = 0; i < count; i++) {
+                            String answer = in.readLine();
+                            latencies[first + done + i] = System.nanoTime() - sentAt;
+                            if (!expected[sent[i]].equals(answer)) {
+                                wrong.incrementAndGet();
+                            }
+                        }
+                        done += count;
+                        answered.addAndGet(count);
+                    }
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                }
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(10, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+
+        // Requests of failed connections have no latency and are left out
+        long[] measured = Arrays.stream(latencies).filter(latency -> latency > 0).sorted().toArray();
+        return String.format("%d connections, bursts of %d: %.0f queries/s, p50 %.0f us, p99 %.0f us, "
+                + "%d wrong answers, %d failed connections", connections, burst,
+                answered.get() * 1e9 / elapsed, percentile(measured, 0.50) / 1e3,
+                percentile(measured, 0.99) / 1e3, wrong.get(), failed.get());
+    }
+
+    // Gets a percentile of sorted values, or 0 if there are none
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, fraction * sorted.length)];
+    }
+
+    // Levenshtein distance between two words, with a single row
+    private static int editDistance(String a, String b) {
+        int[] row = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            row[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            int diagonal = row[0];
+            row[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int above = row[j];
+                row[j] = Math.min(Math.min(row[j - 1] + 1, above + 1),
+                        diagonal + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1));
+                diagonal = above;
+            }
+        }
+        return row[b.length()];
+    }
+
+    // A load that can fail with an I/O error
+    private interface Load {
+        void run() throws IOException;
+    }
+
+    // Runs a load several times and returns the best rate in words per second
+    private static double bestRate(int words, Load load) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int pass = 0; pass < 5; pass++) { // The first passes also warm up the JIT
+            System.gc(); // Collect the previous pass's trie outside the timed region
+            long start = System.nanoTime();
+            load.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return words * 1e9 / best;
+    }
+
+    // Reads a dictionary the way loadFile did before DictionaryReader, inserting each word at index 0
+    private static void loadWithScanner(String fileName, BiConsumer<String, Integer> insert)
+            throws IOException {
+        loadWithScanner(fileName, word -> insert.accept(word, 0));
+    }
+
+    private static void loadWithScanner(String fileName, Consumer<String> insert) throws IOException {
+        try (Scanner scanner = new Scanner(new File(fileName))) {
+            while (scanner.hasNextLine()) {
+                String word = scanner.nextLine().trim().toLowerCase();
+                if (!word.isEmpty()) {
+                    insert.accept(word);
+                }
+            }
+        }
+    }
+
+    // Warms up and then times a query, returning microseconds per query
+    private static double timeQueries(Consumer<String> query, String[] queries) {
+        runQueries(query, queries, WARMUP);
+        long start = System.nanoTime();
+        int count = runQueries(query, queries, QUERIES);
+        return (System.nanoTime() - start) / 1000.0 / count;
+    }
+
+    // Gets the used heap after garbage collection, as reported by the memory MXBean
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc(); // Several passes so that unreachable objects are really gone
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // Compares the indexed MinHeap with the previous linear-membership heap for several k
+    private static void benchmarkHeap() {
+        int inserts = 200_000; // Number of (word, importance) pairs offered to each heap
+        String[] pool = new String[inserts / 2]; // Half as many distinct words, so duplicates occur
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = "word" + i;
+        }
+        String[] words = new String[inserts];
+        int[] importance = new int[inserts];
+        for (int i = 0; i < inserts; i++) {
+            words[i] = pool[random.nextInt(pool.length)];
+            importance[i] = random.nextInt(1_000_000);
+        }
+
+        for (int k : new int[] { 10, 1_000, 100_000 }) {
+            long start = System.nanoTime();
+            TrieApp.MinHeap heap = new TrieApp.MinHeap(k);
+            for (int i = 0; i < inserts; i++) {
+                heap.insert(words[i], importance[i]);
+            }
+            heap.getTopKWords(k);
+            long indexed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            LinearMinHeap linearHeap = new LinearMinHeap(k);
+            for (int i = 0; i < inserts; i++) {
+                linearHeap.insert(words[i], importance[i]);
+            }
+            linearHeap.getTopKWords(k);
+            long linear = System.nanoTime() - start;
+
+            System.out.printf("k = %d: indexed %.1f ms, linear %.1f ms%n", k, indexed / 1e6, linear / 1e6);
+        }
+    }
+
+    // The MinHeap as it was before it got its position index, kept for comparison
+    private static class LinearMinHeap {
+        private String[] heap; // Array to store words
+        private int[] importance; // Array to store importance values for each word
+        private int size; // Current number of elements in the heap
+        private int capacity; // Maximum number of elements the heap can hold
+
+        LinearMinHeap(int capacity) {
+            this.capacity = capacity;
+            this.heap = new String[capacity];
+            this.importance = new int[capacity];
+        }
+
+        private void swap(int i, int j) {
+            String tempWord = heap[i];
+            heap[i] = heap[j];
+            heap[j] = tempWord;
+
+            int tempImportance = importance[i];
+            importance[i] = importance[j];
+            importance[j] = tempImportance;
+        }
+
+        void insert(String word, int wordImportance) {
+            for (int i = 0; i < size; i++) {
+                if (heap[i].equals(word)) {
+                    return; // Linear membership check, as in the old heap
+                }
+            }
+
+            if (size < capacity) {
+                heap[size] = word;
+                importance[size] = wordImportance;
+                int current = size++;
+                while (current > 0 && importance[current] < importance[(current - 1) / 2]) {
+                    swap(current, (current - 1) / 2);
+                    current = (current - 1) / 2;
+                }
+            } else if (wordImportance > importance[0]) {
+                heap[0] = word;
+                importance[0] = wordImportance;
+                heapify(0);
+            }
+        }
+
+        String removeMin() {
+            if (size == 0) {
+                return null;
+            }
+            String rootWord = heap[0];
+            heap[0] = heap[size - 1];
+            importance[0] = importance[size - 1];
+            size--;
+            heapify(0);
+            return rootWord;
+        }
+
+        private void heapify(int i) {
+            int left = 2 * i + 1;
+            int right = 2 * i + 2;
+            int smallest = i;
+            if (left < size && importance[left] < importance[smallest]) {
+                smallest = left;
+            }
+            if (right < size && importance[right] < importance[smallest]) {
+                smallest = right;
+            }
+            if (smallest != i) {
+                swap(i, smallest);
+                heapify(smallest);
+            }
+        }
+
+        String[] getTopKWords(int k) {
+            String[] result = new String[Math.min(k, size)];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = removeMin(); // Destructive drain, in ascending order
+            }
+            return result;
+        }
+    }
+
+    // Runs up to `limit` queries, stopping early once the time budget is spent
+    private static int runQueries(Consumer<String> query, String[] queries, int limit) {
+        long deadline = System.nanoTime() + TIME_BUDGET_NANOS;
+        int count = 0;
+        while (count < limit && System.nanoTime() < deadline) {
+            query.accept(queries[count]);
+            count++;
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Usage: java TrieBenchmark <prefix|topk|cache|memory|lookup|frozen|snapshot|load|parallel|sorted|concurrent|striped|ingest|tokenizer|bulk|traversal|fuzzy|similar|querycache|batch|server|heap> [dictionary files...]");
+            return;
+        }
+
+        if (args[0].equals("heap")) {
+            benchmarkHeap(); // Does not use a dictionary
+            return;
+        }
+
+        // Default to the larger dictionaries when no files are given, or to all of them for load
+        String[] dictionaryFiles = args.length > 1
+                ? Arrays.copyOfRange(args, 1, args.length)
+                : args[0].equals("load")
+                        ? new String[] { "dictionary1.txt", "dictionary2.txt", "dictionary3.txt", "dictionary4.txt",
+                                "dictionary5.txt", "dictionary6.txt" }
+                        : args[0].equals("parallel")
+                                ? new String[] { "dictionary6.txt" }
+                                : new String[] { "dictionary4.txt", "dictionary5.txt", "dictionary6.txt" };
+
+        for (String fileName : dictionaryFiles) {
+            if (!new File(fileName).exists()) {
+                System.out.println("Skipping missing dictionary " + fileName);
+                continue;
+            }
+
+            switch (args[0]) {
+                case "prefix":
+                    benchmarkPrefixLength(fileName);
+                    break;
+                case "cache":
+                    benchmarkCompletionCache(fileName);
+                    break;
+                case "memory":
+                    benchmarkMemory(fileName);
+                    break;
+                case "lookup":
+                    benchmarkLookup(fileName);
+                    break;
+                case "topk":
+                    benchmarkTopK(fileName);
+                    break;
+                case "frozen":
+                    benchmarkFrozen(fileName);
+                    break;
+                case "snapshot":
+                    benchmarkSnapshot(fileName);
+                    break;
+                case "load":
+                    benchmarkLoad(fileName);
+                    break;
+                case "parallel":
+                    benchmarkParallelLoad(fileName);
+                    break;
+                case "sorted":
+                    benchmarkSortedBuild(fileName);
+                    break;
+                case "concurrent":
+                    benchmarkConcurrent(fileName);
+                    break;
+                case "striped":
+                    benchmarkStripedCounts(fileName);
+                    break;
+                case "ingest":
+                    benchmarkIngest(fileName);
+                    break;
+                case "tokenizer":
+                    benchmarkTokenizer(fileName);
+                    break;
+                case "bulk":
+                    benchmarkBulkUpdate(fileName);
+                    break;
+                case "traversal":
+                    benchmarkTraversal(fileName);
+                    break;
+                case "fuzzy":
+                    benchmarkFuzzy(fileName);
+                    break;
+                case "similar":
+                    benchmarkSimilar(fileName);
+                    break;
+                case "querycache":
+                    benchmarkQueryCache(fileName);
+                    break;
+                case "batch":
+                    benchmarkBatch(fileName);
+                    break;
+                case "server":
+                    benchmarkServer(fileName);
+                    break;
+                default:
+                    System.out.println("Unknown benchmark: " + args[0]);
+                    return;
+            }
+        }
+    }
+}
@@ -1,6 +1,10 @@
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class TrieHashing {
 
@@ -13,32 +17,21 @@ public class TrieHashing {
 
     // Inner class representing a node in the Trie
     public class TrieNode {
-        private RobinHoodHashing children; // RobinHoodHashing structure for child nodes
+        private RobinHoodHashing children; // RobinHoodHashing structure for child nodes, allocated with the first child
         private int wordLength; // Indicates if this node represents a complete word
         private int importance; // Optional importance field for the node
 
         public TrieNode() {
-            this.children = new RobinHoodHashing(); // Initialize RobinHoodHashing for child nodes
+            this.children = null; // Leaves never allocate a hash table
             this.wordLength = 0; // Default to 0, indicating no complete word
             this.importance = 0; // Default importance
         }
     }
 
-    // Inner class implementing Robin Hood Hashing
-    public class RobinHoodHashing {
-        private class Element {
-            char key; // The character key for this element
-            int probeLength; // Distance from the original hash index
-            TrieNode trieNode; // Reference to the associated TrieNode
-
-            Element(char key, TrieNode trieNode) {
-                this.key = key; // Assign key
-                this.trieNode = trieNode; // Associate TrieNode
-                this.probeLength = 0; // Default probe length
-            }
-        }
-
-        private Element[] table; // The hash table
+    // Inner class implementing Robin Hood Hashing, with the table stored as parallel arrays
+    public static class RobinHoodHashing {
+        private char[] keys; // The character key stored in each slot
+        private TrieNode[] trieNodes; // The TrieNode stored in each slot, or null if the slot is empty
         private int capacity; // Current capacity of the table
         private int size; // Number of elements in the table
         private int maxProbeLength; // Maximum probe length observed
@@ -47,15 +40,21 @@ public class TrieHashing {
             this.capacity = 5; // Initial size of the table
             this.size = 0; // Initially empty
             this.maxProbeLength = 0; // Default maximum probe length
-            this.table = new Element[capacity]; // Initialize table
+            this.keys = new char[capacity]; // Initialize table
+            this.trieNodes = new TrieNode[capacity];
         }
 
         private int hash(char key) {
             return key % capacity; // Hash function based on character modulo table size
         }
 
+        private int probeLength(int index) {
+            return (index - hash(keys[index]) + capacity) % capacity; // Derived from the key instead of stored
+        }
+
         private void rehash() {
-            Element[] oldTable = table; // Save the old table
+            char[] oldKeys = keys; // Save the old table
+            TrieNode[] oldTrieNodes = trieNodes;
 
             // Increase capacity
             if (capacity == 5) capacity = 11;
@@ -63,14 +62,15 @@ public class TrieHashing {
             else if (capacity == 19) capacity = 29;
 
             // Create a new table with increased capacity
-            table = new Element[capacity];
+            keys = new char[capacity];
+            trieNodes = new TrieNode[capacity];
             size = 0; // Reset size
             maxProbeLength = 0; // Reset max probe length
 
             // Reinsert elements from the old table into the new table
-            for (Element e : oldTable) {
-                if (e != null) {
-                    insert(e.key, e.trieNode);
+            for (int i = 0; i < oldTrieNodes.length; i++) {
+                if (oldTrieNodes[i] != null) {
+                    insert(oldKeys[i], oldTrieNodes[i]);
                 }
             }
         }
@@ -80,22 +80,27 @@ public class TrieHashing {
                 rehash();
             }
 
-            Element newElement = new Element(key, trieNode);
             int index = hash(key);
             int probe = 0;
 
-            while (table[index] != null) {
-                Element current = table[index];
-                if (current.probeLength < probe) { // Apply Robin Hood Hashing
-                    table[index] = newElement; // Swap elements
-                    newElement = current;
+            while (trieNodes[index] != null) {
+                int currentProbe = probeLength(index);
+                if (currentProbe < probe) { // Apply Robin Hood Hashing
+                    char displacedKey = keys[index]; // Swap elements field by field
+                    TrieNode displacedTrieNode = trieNodes[index];
+                    keys[index] = key;
+                    trieNodes[index] = trieNode;
+                    maxProbeLength = Math.max(maxProbeLength, probe);
+                    key = displacedKey; // Continue placing the displaced element
+                    trieNode = displacedTrieNode;
+                    probe = currentProbe;
                 }
                 index = (index + 1) % capacity; // Move to the next index
                 probe++;
             }
 
-            table[index] = newElement; // Place the element in the table
-            newElement.probeLength = probe; // Update probe length
+            keys[index] = key; // Place the element in the table
+            trieNodes[index] = trieNode;
             size++; // Increase table size
             maxProbeLength = Math.max(maxProbeLength, probe); // Update max probe length
         }
@@ -104,9 +109,9 @@ public class TrieHashing {
             int index = hash(key); // Calculate hash index
             int probe = 0;
 
-            while (table[index] != null) {
-                if (table[index].key == key) {
-                    return table[index].trieNode; // Return associated TrieNode if found
+            while (trieNodes[index] != null) {
+                if (keys[index] == key) {
+                    return trieNodes[index]; // Return associated TrieNode if found
                 }
                 index = (index + 1) % capacity; // Move to the next index
                 probe++;
@@ -128,6 +133,9 @@ public class TrieHashing {
         }
 
         char c = word.charAt(index); // Get current character
+        if (node.children == null) {
+            node.children = new RobinHoodHashing(); // Allocate the table on the first child insert
+        }
         TrieNode child = node.children.search(c); // Search for child node
         if (child == null) {
             child = new TrieNode(); // Create new child node if not found
@@ -137,78 +145,143 @@ public class TrieHashing {
         insertRecursively(word, index + 1, child); // Recursively insert the next character
     }
 
-    public void printWords() {
-        printWords(root, ""); // Start printing from the root node
+    // Inserts an already lowercased word held in the first `length` characters of an array
+    public void insert(char[] word, int length) {
+        insert(root, word, 0, length, length);
     }
 
-    private void printWords(TrieNode node, String prefix) {
-        if (node.wordLength > 0) {
-            System.out.println(prefix); // Print the word if this node represents a complete word
+    // Inserts the characters chars[from..to) below a node, marking the last node with the given word length
+    private void insert(TrieNode node, char[] chars, int from, int to, int wordLength) {
+        for (int index = from; index < to; index++) {
+            node = getOrAddChild(node, chars[index]);
         }
+        node.wordLength = wordLength; // Mark node as a complete word
+    }
 
-        for (char c = 'a'; c <= 'z'; c++) { // Traverse all possible child nodes
-            TrieNode child = node.children.search(c);
-            if (child != null) {
-                printWords(child, prefix + c); // Recursive call with updated prefix
-            }
+    // Gets the child of a node for a character, adding it if it is missing
+    private TrieNode getOrAddChild(TrieNode node, char c) {
+        if (node.children == null) {
+            node.children = new RobinHoodHashing(); // Allocate the table on the first child insert
         }
+        TrieNode child = node.children.search(c); // Search for child node
+        if (child == null) {
+            child = new TrieNode(); // Create new child node if not found
+            node.children.insert(c, child);
+        }
+        return child;
     }
 
-    public void loadFile(String filePath) {
-        File file = new File(filePath);
-
-        try (Scanner scanner = new Scanner(file)) {
-            while (scanner.hasNextLine()) {
-                String word = scanner.nextLine().trim().toLowerCase();
-                if (!word.isEmpty()) {
-                    numOfWords++;
-                    insertRecursively(word, 0); // Insert each word into the Trie
-                }
+    // Loads a file like loadFile, but builds the subtree under each first character on its own
+    // ForkJoinPool worker. The subtrees share no nodes, so the workers need no locking
+    public void loadFileParallel(String filePath, int parallelism) {
+        if (parallelism <= 0) {
+            System.out.println("Error: Invalid parallelism - " + parallelism);
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            Map<Character, DictionaryReader.Shard> shards = DictionaryReader.readShards(filePath);
+
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (Map.Entry<Character, DictionaryReader.Shard> entry : shards.entrySet()) {
+                // Only this thread changes the root, so attach each subtree before its worker starts
+                TrieNode subtree = getOrAddChild(root, entry.getKey());
+                tasks.add(pool.submit(() -> insertShard(subtree, entry.getValue())));
+                numOfWords += entry.getValue().size();
+            }
+
+            for (ForkJoinTask<?> task : tasks) {
+                task.join(); // Joining also makes the workers' nodes visible to this thread
             }
-        } catch (FileNotFoundException e) {
+        } catch (NoSuchFileException e) {
             System.out.println("Error: File not found - " + filePath);
         } catch (Exception e) {
             System.out.println("Error processing file: " + e.getMessage());
+        } finally {
+            pool.shutdown();
         }
     }
 
-    public int calcMem() {
-        return calcMem(root);
+    // Inserts the words of a shard into the subtree of their shared first character
+    private void insertShard(TrieNode subtree, DictionaryReader.Shard shard) {
+        char[] chars = shard.chars();
+        for (int i = 0; i < shard.size(); i++) {
+            int start = shard.start(i);
+            insert(subtree, chars, start + 1, shard.end(i), shard.end(i) - start); // The subtree is the first character
+        }
     }
 
-    private int calcMem(TrieNode node) {
-        if (node == null) {
-            return 0; // Return 0 for null nodes
+    public void printWords() {
+        new TrieTraversal<TrieNode>(this::forEachChildInOrder).walk(root, "", (node, path) -> {
+            if (node.wordLength > 0) {
+                System.out.println(path); // Print the word if this node represents a complete word
+            }
+            return true;
+        });
+    }
+
+    // Lists the children of a node in alphabetical order, for TrieTraversal
+    private void forEachChildInOrder(TrieNode node, TrieTraversal<TrieNode> traversal) {
+        if (node.children == null) {
+            return; // A leaf has no children
         }
 
-        int memory = 4; // Memory for wordLength (4 bytes)
-        memory += calcRobinHoodMem(node.children); // Calculate memory for Robin Hood Hashing
+        for (char c = 'a'; c <= 'z'; c++) { // Traverse all possible child nodes
+            TrieNode child = node.children.search(c);
+            if (child != null) {
+                traversal.add(c, child);
+            }
+        }
+    }
 
-        for (RobinHoodHashing.Element e : node.children.table) {
-            if (e != null && e.trieNode != null) {
-                memory += calcMem(e.trieNode); // Recursively calculate memory for child nodes
+    // Lists the children of a node in the order of their slots, when the order does not matter
+    private void forEachChild(TrieNode node, TrieTraversal<TrieNode> traversal) {
+        if (node.children == null) {
+            return; // A leaf has no children
+        }
+
+        for (int i = 0; i < node.children.capacity; i++) {
+            if (node.children.trieNodes[i] != null) {
+                traversal.add(node.children.keys[i], node.children.trieNodes[i]);
             }
         }
+    }
+
+    public void loadFile(String filePath) {
+        try {
+            numOfWords += DictionaryReader.readWords(filePath, this::insert); // Insert each word into the Trie
+        } catch (NoSuchFileException e) {
+            System.out.println("Error: File not found - " + filePath);
+        } catch (Exception e) {
+            System.out.println("Error processing file: " + e.getMessage());
+        }
+    }
 
-        return memory; // Return total memory usage
+    public int calcMem() {
+        int[] memory = new int[1]; // Total so far, updated by the visitor
+        new TrieTraversal<TrieNode>(this::forEachChild).walk(root, "", (node, path) -> {
+            memory[0] += 4; // Memory for wordLength (4 bytes)
+            memory[0] += calcRobinHoodMem(node.children); // Calculate memory for Robin Hood Hashing
+            return true;
+        });
+
+        return memory[0]; // Return total memory usage
     }
 
     private int calcRobinHoodMem(RobinHoodHashing robinHoodHashing) {
-        if (robinHoodHashing == null || robinHoodHashing.table == null) {
+        if (robinHoodHashing == null || robinHoodHashing.trieNodes == null) {
             return 0; // Return 0 for null hashing tables
         }
 
         int memory = 12; // Memory for metadata (capacity, size, maxProbeLength)
-
-        for (RobinHoodHashing.Element e : robinHoodHashing.table) {
-            memory += calcElementMem(e); // Add memory for each element
-        }
+        memory += robinHoodHashing.capacity * calcSlotMem(); // Add memory for every slot of the arrays
 
         return memory; // Return total memory for Robin Hood Hashing
     }
 
-    private int calcElementMem(RobinHoodHashing.Element e) {
-        return e != null ? 2 /* char */ + 4 /* probeLength */ + 8 /* trieNode reference */ : 0;
+    private int calcSlotMem() {
+        return 2 /* char */ + 8 /* trieNode reference */;
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,195 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Serves findTopKWords queries of a FrozenTrie over TCP on localhost, with one thread per connection.
+// On Java 21 and later these are virtual threads, so thousands of connections cost little; on older
+// JDKs they are platform threads. The protocol is one request per line, "<k> <word>", answered by one
+// line with the top k words separated by tabs, or by "ERROR <reason>". A client may send many requests
+// before reading the answers, which come back in request order
+public class TrieServer implements Closeable {
+    public static final int MAX_K = 1000; // Largest k a request may ask for, which bounds the heap it allocates
+    public static final int MAX_REQUEST_LENGTH = 2 * TrieApp.MAX_TOKEN_LENGTH; // Longest request line read
+
+    private final FrozenTrie trie;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = newThreadPerTaskExecutor();
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet(); // Closed when the server closes
+    private final Thread acceptor;
+
+    // Starts serving a trie on a port of the loopback address; port 0 picks a free one
+    public TrieServer(FrozenTrie trie, int port) throws IOException {
+        this.trie = trie;
+        this.serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+        this.acceptor = new Thread(this::acceptConnections, "TrieServer acceptor");
+        acceptor.start();
+    }
+
+    // Gets the port the server listens on
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    // A virtual thread per task where the JDK has them, found by reflection so that this also
+    // compiles and runs on JDKs without them, and a platform thread per task otherwise
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task);
+                thread.setDaemon(true); // Do not keep the JVM alive for an open connection
+                return thread;
+            });
+        }
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                openSockets.add(socket);
+                connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.out.println("Error accepting connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Answers the requests of one connection until the client closes it. Answers are buffered and
+    // only written out when no further request is waiting, so a pipelined burst gets one write. A
+    // request longer than MAX_REQUEST_LENGTH is answered with an error and ends the connection
+    private void serve(Socket socket) {
+        try (socket;
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                Writer out = new BufferedWriter(
+                        new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true); // Answers are small and a client may be waiting for each
+            String line;
+            while ((line = readRequest(in)) != null) {
+                if (line.length() > MAX_REQUEST_LENGTH) {
+                    out.write("ERROR request too long\n"); // Closing the writer sends it
+                    break;
+                }
+                out.write(answer(line));
+                out.write('\n');
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (SocketException e) {
+            // The client reset the connection, or the server closed it
+        } catch (IOException e) {
+            System.out.println("Error serving connection: " + e.getMessage());
+        } finally {
+            openSockets.remove(socket);
+        }
+    }
+
+    // Reads a line like BufferedReader.readLine, but stops after MAX_REQUEST_LENGTH + 1 characters,
+    // so that a client cannot make the server buffer a line of any length. Returns null at the end
+    private static String readRequest(BufferedReader in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                return line.toString();
+            } else if (c == '\r') {
+                in.mark(1);
+                if (in.read() != '\n') {
+                    in.reset(); // A lone carriage return also ends a line
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+            if (line.length() > MAX_REQUEST_LENGTH) {
+                return line.toString(); // Too long, which the caller tells from the length
+            }
+        }
+        return line.length() > 0 ? line.toString() : null; // The last line may have no line break
+    }
+
+    // Answers one request line
+    String answer(String request) {
+        int space = request.indexOf(' ');
+        if (space < 0) {
+            return "ERROR expected \"<k> <word>\"";
+        }
+
+        int k;
+        try {
+            k = Integer.parseInt(request.substring(0, space));
+        } catch (NumberFormatException e) {
+            return "ERROR k is not a number";
+        }
+        if (k < 0 || k > MAX_K) {
+            return "ERROR k must be between 0 and " + MAX_K;
+        }
+
+        String word = request.substring(space + 1).trim().toLowerCase(); // Normalize like the stored words
+        return String.join("\t", trie.findTopKWords(word, k).getTopKWords(k));
+    }
+
+    // Stops accepting connections and closes the open ones
+    public void close() throws IOException {
+        serverSocket.close();
+        try {
+            acceptor.join(); // So no connection is handed to the executor after it shuts down
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Socket socket : openSockets) {
+            socket.close();
+        }
+        connections.shutdown();
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: java TrieServer <port> <dictionary file> <words file>");
+            System.out.println("       java TrieServer <port> --snapshot <snapshot file>");
+            return;
+        }
+
+        FrozenTrie trie;
+        try {
+            if (args[1].equals("--snapshot")) {
+                trie = FrozenTrie.openSnapshot(args[2]);
+            } else {
+                TrieApp app = new TrieApp();
+                app.loadFile(args[1]); // Load dictionary file
+                app.importanceUpdate(new File(args[2])); // Update importance using words file
+                trie = app.freeze(); // Read-only from here on, so the connections can share it
+            }
+        } catch (IOException e) {
+            System.out.println("Error opening snapshot: " + e.getMessage());
+            return;
+        }
+
+        try {
+            TrieServer server = new TrieServer(trie, Integer.parseInt(args[0]));
+            System.out.println("Serving on localhost:" + server.getPort());
+        } catch (NumberFormatException e) {
+            System.out.println("Error: Invalid port - " + args[0]);
+        } catch (IOException e) {
+            System.out.println("Error starting server: " + e.getMessage());
+        }
+    }
+}
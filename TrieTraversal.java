@@ -0,0 +1,157 @@
+import java.util.Arrays;
+
+// Depth-first walk over the nodes of any of the tries, with an explicit stack instead of recursion and
+// one reused path buffer instead of a new String per node. The trie tells it how to list a node's
+// children, and a visitor sees every node together with its path
+public class TrieTraversal<N> {
+
+    // Lists the children of a node by passing each one to traversal.add, in the order to visit them
+    public interface Children<N> {
+        void forEach(N node, TrieTraversal<N> traversal);
+    }
+
+    // Receives the nodes of a walk
+    public interface Visitor<N> {
+        // Called for a node before its children, returning whether to visit them. The path is a view
+        // of the traversal's buffer that only holds during the call; toString copies it
+        boolean enter(N node, CharSequence path);
+
+        // Called for a node after all of its children, if enter returned true for it
+        default void leave(N node, CharSequence path) {
+        }
+    }
+
+    private final Children<N> children;
+    private final Path path = new Path();
+    private char[] keys = new char[64]; // Children still to visit, of every node on the current path
+    private Object[] nodes = new Object[64];
+    private int size; // Number of children held
+    private Object[] frameNodes = new Object[16]; // The nodes on the current path that are being expanded
+    private int[] frameCursors = new int[16]; // Next child of each of them to visit
+    private int[] frameEnds = new int[16]; // Index past their last child
+    private int frames; // Number of nodes being expanded
+
+    public TrieTraversal(Children<N> children) {
+        this.children = children;
+    }
+
+    // Walks the subtree of a node in depth-first order. startPath is the path of the node itself, so
+    // the paths the visitor sees all start with it
+    @SuppressWarnings("unchecked")
+    public void walk(N start, CharSequence startPath, Visitor<N> visitor) {
+        int startDepth = startPath.length();
+        path.ensureCapacity(startDepth);
+        for (int i = 0; i < startDepth; i++) {
+            path.chars[i] = startPath.charAt(i);
+        }
+        path.length = startDepth;
+        size = 0;
+        frames = 0;
+        if (visitor.enter(start, path)) {
+            expand(start, visitor);
+        }
+
+        // The node expanded at frame f has depth startDepth + f, and the children of the last frame
+        // are the siblings of whatever node is entered next
+        while (frames > 0) {
+            int frame = frames - 1;
+            if (frameCursors[frame] == frameEnds[frame]) {
+                // All children are done, so drop them and leave the node. Its children were added
+                // right after those of the frame before
+                N node = (N) frameNodes[frame];
+                frameNodes[frame] = null; // Do not keep visited nodes reachable
+                frames--;
+                size = frame == 0 ? 0 : frameEnds[frame - 1];
+                path.length = startDepth + frame; // Descendants only changed the path below this node
+                visitor.leave(node, path);
+                continue;
+            }
+
+            int child = frameCursors[frame]++;
+            int depth = startDepth + frame + 1;
+            path.ensureCapacity(depth);
+            path.chars[depth - 1] = keys[child];
+            path.length = depth;
+            N node = (N) nodes[child];
+            nodes[child] = null;
+            if (visitor.enter(node, path)) {
+                expand(node, visitor);
+            }
+        }
+    }
+
+    // Lists the children of an entered node. A node without any is left right away
+    private void expand(N node, Visitor<N> visitor) {
+        int first = size;
+        children.forEach(node, this);
+        if (size == first) {
+            visitor.leave(node, path);
+            return;
+        }
+
+        if (frames == frameNodes.length) {
+            frameNodes = Arrays.copyOf(frameNodes, frames * 2);
+            frameCursors = Arrays.copyOf(frameCursors, frames * 2);
+            frameEnds = Arrays.copyOf(frameEnds, frames * 2);
+        }
+        frameNodes[frames] = node;
+        frameCursors[frames] = first;
+        frameEnds[frames] = size;
+        frames++;
+    }
+
+    // Skips the siblings of the current node that come after it, for a visitor that knows none of
+    // them can matter, e.g. because children are listed by descending importance. Only called from
+    // Visitor.enter
+    public void skipSiblings() {
+        if (frames > 0) {
+            frameCursors[frames - 1] = frameEnds[frames - 1];
+        }
+    }
+
+    // Adds a child of the node being expanded. Only called from Children.forEach
+    public void add(char key, N child) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        keys[size] = key;
+        nodes[size] = child;
+        size++;
+    }
+
+    // The path of the current node, as a view of a buffer that the walk keeps overwriting
+    private static class Path implements CharSequence {
+        private char[] chars = new char[64];
+        private int length;
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+            }
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of path of length " + length);
+            }
+            return chars[index];
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || start > end || end > length) {
+                throw new IndexOutOfBoundsException("Range " + start + ".." + end + " out of path of length "
+                        + length);
+            }
+            return new String(chars, start, end - start);
+        }
+
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+}